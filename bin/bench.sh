@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# build and run the JMH benchmarks in jmh/, allocation rates included
+# usage: bin/bench.sh [jmh options] [benchmark regexp]
+ROOT=`dirname $0`
+cd $ROOT/..
+mvn install -q -DskipTests -Dgpg.skip && (cd jmh && mvn package -q) && java -jar jmh/target/benchmarks.jar "$@"
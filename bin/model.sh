@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# convert prob_emit.txt into the binary HMM model
+# usage: bin/model.sh <output> [prob_emit.txt]
+ROOT=`dirname $0`
+cd $ROOT/..
+mvn compile -q && java -cp target/classes com.huaban.analysis.jieba.viterbi.ModelSnapshot "$@"
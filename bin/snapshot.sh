@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# compile dict.txt and the user dicts into a binary snapshot
+# usage: bin/snapshot.sh <output> [userDictDir ...]
+ROOT=`dirname $0`
+cd $ROOT/..
+mvn compile -q && java -cp target/classes com.huaban.analysis.jieba.DictSnapshot "$@"
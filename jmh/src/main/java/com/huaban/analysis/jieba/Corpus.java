@@ -0,0 +1,81 @@
+package com.huaban.analysis.jieba;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * the texts a benchmark segments:
+ * <ul>
+ * <li>query: the short queries of JiebaSegmenterTest, one per line</li>
+ * <li>news: news paragraphs of a few hundred chars</li>
+ * <li>document: the news paragraphs joined into one document of about 256K chars</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+
+    private static final int DOCUMENT_CHARS = 1 << 18;
+
+    @Param({"query", "news", "document"})
+    public String corpus;
+
+    public List<String> texts;
+    // chars of all texts, to turn ops/s into chars/s
+    public long chars;
+
+    @Setup
+    public void setup() {
+        texts = texts(corpus);
+        chars = 0;
+        for (String text : texts) {
+            chars += text.length();
+        }
+    }
+
+    public static List<String> texts(final String corpus) {
+        switch (corpus) {
+            case "query":
+                return lines("/corpus/queries.txt");
+            case "news":
+                return lines("/corpus/news.txt");
+            case "document":
+                final List<String> paragraphs = lines("/corpus/news.txt");
+                final StringBuilder document = new StringBuilder(DOCUMENT_CHARS + 1024);
+                for (int i = 0; document.length() < DOCUMENT_CHARS; ++i) {
+                    document.append(paragraphs.get(i % paragraphs.size())).append('\n');
+                }
+                return Collections.singletonList(document.toString());
+            default:
+                throw new IllegalArgumentException("unknown corpus " + corpus);
+        }
+    }
+
+    private static List<String> lines(final String resource) {
+        final List<String> lines = new ArrayList<>();
+        try (InputStream is = Corpus.class.getResourceAsStream(resource)) {
+            final BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+}
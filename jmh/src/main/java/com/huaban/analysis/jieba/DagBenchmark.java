@@ -0,0 +1,74 @@
+package com.huaban.analysis.jieba;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * building the DAG of every sentence of a corpus, and the route over it
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DagBenchmark {
+
+    private final DAG dag = new DAG();
+    private WordDictionary.Snapshot dict;
+    // the runs of ccFind chars process() hands to the DAG
+    private List<String> sentences;
+
+    @Setup
+    public void setup(final Corpus corpus) {
+        dict = WordDictionary.getInstance().snapshot();
+        sentences = new ArrayList<>();
+        final StringBuilder sb = new StringBuilder();
+        for (String text : corpus.texts) {
+            for (int i = 0; i < text.length(); ++i) {
+                final char ch = CharacterUtil.normalize(text.charAt(i));
+                if (CharacterUtil.ccFind(ch)) {
+                    sb.append(ch);
+                } else if (sb.length() > 0) {
+                    sentences.add(sb.toString());
+                    sb.setLength(0);
+                }
+            }
+            if (sb.length() > 0) {
+                sentences.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+    }
+
+    @Benchmark
+    public void build(final Blackhole bh) {
+        for (String sentence : sentences) {
+            dag.build(dict, sentence);
+            bh.consume(dag.firstEdge(sentence.length()));
+        }
+    }
+
+    @Benchmark
+    public void buildAndCalc(final Blackhole bh) {
+        for (String sentence : sentences) {
+            dag.build(dict, sentence);
+            dag.calc();
+            bh.consume(dag.route(0));
+        }
+    }
+}
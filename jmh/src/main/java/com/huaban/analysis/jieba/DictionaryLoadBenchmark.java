@@ -0,0 +1,74 @@
+package com.huaban.analysis.jieba;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * loading the main dictionary from dict.txt and from a binary snapshot, heap
+ * copied and memory mapped. single shots, as at startup. every shot loads a
+ * dictionary of its own, the shared instance is never touched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(3)
+public class DictionaryLoadBenchmark {
+
+    private Path snapshot;
+
+    @Setup
+    public void setup() throws IOException {
+        snapshot = Files.createTempFile("jieba-bench", ".snapshot");
+        final WordDictionary dict = new WordDictionary(false);
+        dict.loadDict();
+        DictSnapshot.write(dict, snapshot);
+        System.setProperty(DictSnapshot.SNAPSHOT_PROPERTY, snapshot.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.clearProperty(DictSnapshot.SNAPSHOT_PROPERTY);
+        System.clearProperty(DictSnapshot.MMAP_PROPERTY);
+        Files.deleteIfExists(snapshot);
+    }
+
+    @Benchmark
+    public WordDictionary.Snapshot text() {
+        final WordDictionary dict = new WordDictionary(false);
+        dict.loadDict();
+        return dict.snapshot();
+    }
+
+    @Benchmark
+    public WordDictionary.Snapshot snapshot() throws IOException {
+        System.clearProperty(DictSnapshot.MMAP_PROPERTY);
+        final WordDictionary dict = new WordDictionary(false);
+        DictSnapshot.load(dict);
+        return dict.snapshot();
+    }
+
+    @Benchmark
+    public WordDictionary.Snapshot mappedSnapshot() throws IOException {
+        System.setProperty(DictSnapshot.MMAP_PROPERTY, "true");
+        final WordDictionary dict = new WordDictionary(false);
+        DictSnapshot.load(dict);
+        return dict.snapshot();
+    }
+}
@@ -0,0 +1,52 @@
+package com.huaban.analysis.jieba;
+
+import com.huaban.analysis.jieba.JiebaSegmenter.SegMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * segmenting a whole corpus in each mode, into SegToken lists and into a
+ * reused TokenBuffer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SegmentBenchmark {
+
+    @Param({"SEARCH", "INDEX", "FULL"})
+    public SegMode mode;
+
+    private final JiebaSegmenter segmenter = new JiebaSegmenter();
+    private final TokenBuffer tokens = new TokenBuffer();
+
+    @Benchmark
+    public void process(final Corpus corpus, final Blackhole bh) {
+        for (String text : corpus.texts) {
+            bh.consume(segmenter.process(text, mode));
+        }
+    }
+
+    @Benchmark
+    public int processInto(final Corpus corpus) {
+        int count = 0;
+        for (String text : corpus.texts) {
+            count += segmenter.process(text, mode, tokens).size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,45 @@
+package com.huaban.analysis.jieba;
+
+import com.huaban.analysis.jieba.JiebaSegmenter.SegMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * one shared segmenter driven by every available processor at once, shows
+ * contention on the shared dictionary, model and thread local scratch. run
+ * with -t to choose the thread count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@Threads(Threads.MAX)
+public class ThroughputBenchmark {
+
+    @Param({"SEARCH", "INDEX", "FULL"})
+    public SegMode mode;
+
+    private final JiebaSegmenter segmenter = new JiebaSegmenter();
+
+    @Benchmark
+    public void process(final Corpus corpus, final Blackhole bh) {
+        for (String text : corpus.texts) {
+            bh.consume(segmenter.process(text, mode));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.huaban.analysis.jieba.viterbi;
+
+import com.huaban.analysis.jieba.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * the HMM alone: viterbi over every run of Chinese chars of a corpus, as if
+ * none of them were in the dictionary
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ViterbiBenchmark {
+
+    private final FinalSeg finalSeg = FinalSeg.getInstance();
+    private final List<String> cuts = new ArrayList<>();
+    private List<String> runs;
+
+    @Setup
+    public void setup(final Corpus corpus) {
+        runs = new ArrayList<>();
+        for (String text : corpus.texts) {
+            int begin = -1;
+            for (int i = 0; i <= text.length(); ++i) {
+                final boolean chinese = i < text.length() && Character.UnicodeScript.of(text.charAt(i)) == Character.UnicodeScript.HAN;
+                if (chinese && begin < 0) {
+                    begin = i;
+                } else if (!chinese && begin >= 0) {
+                    runs.add(text.substring(begin, i));
+                    begin = -1;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void viterbi(final Blackhole bh) {
+        for (String run : runs) {
+            cuts.clear();
+            finalSeg.viterbi(run, cuts);
+            bh.consume(cuts.size());
+        }
+    }
+
+
+    /**
+     * loading the emission probabilities, from prob_emit.txt and from the
+     * binary model
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    @Fork(3)
+    public static class Load {
+
+        @Benchmark
+        public Emission text() throws IOException {
+            try (InputStream is = FinalSeg.class.getResourceAsStream("/prob_emit.txt")) {
+                return Emission.parse(is);
+            }
+        }
+
+        @Benchmark
+        public Emission snapshot() throws IOException {
+            return ModelSnapshot.load();
+        }
+    }
+}
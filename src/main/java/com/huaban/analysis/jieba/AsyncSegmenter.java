@@ -0,0 +1,236 @@
+package com.huaban.analysis.jieba;
+
+import com.huaban.analysis.jieba.JiebaSegmenter.SegMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * asynchronous front of a {@link JiebaSegmenter}: paragraphs wait in a bounded
+ * queue and a fixed set of workers takes them in micro batches, so a spike
+ * queues at most queueCapacity paragraphs and the {@link Overflow} policy
+ * decides what happens to the rest. the requests of a batch are segmented
+ * one after another on one dictionary snapshot, pinned once per batch, and
+ * on the worker's scratch buffers, trimmed once per batch.
+ * <p>
+ * workers run on virtual threads when the JDK has them and they are asked
+ * for, on daemon platform threads otherwise.
+ */
+public final class AsyncSegmenter implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncSegmenter.class.getName());
+
+    // how often an idle worker checks whether it is closed
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    /**
+     * what submit does when the queue is full
+     */
+    public enum Overflow {
+        // fail the future with RejectedExecutionException
+        REJECT,
+        // block the submitting thread until there is room
+        BLOCK,
+        // segment on the submitting thread
+        CALLER_RUNS
+    }
+
+    private final JiebaSegmenter segmenter;
+    private final BlockingQueue<Request<?>> queue;
+    private final int maxBatchSize;
+    private final Overflow overflow;
+    private final Thread[] workers;
+    private volatile boolean closed;
+
+    public AsyncSegmenter(JiebaSegmenter segmenter) {
+        this(segmenter, Runtime.getRuntime().availableProcessors(), 1024, 32, Overflow.REJECT, false);
+    }
+
+    /**
+     * @param segmenter
+     * @param workers        threads segmenting concurrently
+     * @param queueCapacity  paragraphs waiting at most
+     * @param maxBatchSize   requests a worker takes from the queue as one batch
+     * @param overflow       policy when the queue is full
+     * @param virtualThreads run the workers on virtual threads if the JDK supports them
+     */
+    public AsyncSegmenter(JiebaSegmenter segmenter, int workers, int queueCapacity, int maxBatchSize,
+                          Overflow overflow, boolean virtualThreads) {
+        if (workers < 1 || queueCapacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException(String.format(Locale.getDefault(),
+                    "workers %d, queueCapacity %d and maxBatchSize %d must be positive", workers, queueCapacity, maxBatchSize));
+        }
+        this.segmenter = segmenter;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.overflow = overflow;
+        this.workers = new Thread[workers];
+
+        final ThreadFactory factory = threadFactory(virtualThreads);
+        for (int i = 0; i < workers; ++i) {
+            this.workers[i] = factory.newThread(this::work);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * @param paragraph
+     * @param mode
+     * @return the tokens of paragraph, or RejectedExecutionException when the
+     * queue is full under {@link Overflow#REJECT} or the segmenter is closed
+     */
+    public CompletableFuture<List<SegToken>> submit(String paragraph, SegMode mode) {
+        return submit(segmenter -> segmenter.process(paragraph, mode));
+    }
+
+    /**
+     * run any segmentation call on the workers, queued and batched like
+     * paragraphs are. calls of the given segmenter see the snapshot of the batch
+     *
+     * @param task
+     * @return the result of task
+     */
+    public <T> CompletableFuture<T> submit(Function<JiebaSegmenter, T> task) {
+        final Request<T> request = new Request<>(task);
+        if (closed) {
+            request.future.completeExceptionally(new RejectedExecutionException("segmenter is closed"));
+            return request.future;
+        }
+        if (!queue.offer(request)) {
+            switch (overflow) {
+                case BLOCK:
+                    try {
+                        queue.put(request);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        request.future.completeExceptionally(e);
+                    }
+                    break;
+                case CALLER_RUNS:
+                    request.run(segmenter);
+                    break;
+                default:
+                    request.future.completeExceptionally(new RejectedExecutionException("segment queue is full"));
+                    break;
+            }
+        }
+        // close() may have drained the queue for the last time before the request got in
+        if (closed && queue.remove(request)) {
+            request.future.completeExceptionally(new RejectedExecutionException("segmenter is closed"));
+        }
+        return request.future;
+    }
+
+    /**
+     * @return paragraphs waiting for a worker
+     */
+    public int queued() {
+        return queue.size();
+    }
+
+    /**
+     * stop taking paragraphs, segment the queued ones and wait for the workers
+     */
+    @Override
+    public void close() {
+        closed = true;
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    // the queued paragraphs are still segmented, the interrupt is kept for the caller
+                    interrupted = true;
+                }
+            }
+        }
+        // a submit racing with close may have queued behind the last worker,
+        // one queuing after this drain fails its own request
+        Request<?> request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(new RejectedExecutionException("segmenter is closed"));
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        final List<Request<?>> batch = new ArrayList<>(maxBatchSize);
+        final Runnable runBatch = () -> {
+            for (Request<?> request : batch) {
+                request.run(segmenter);
+            }
+        };
+        while (true) {
+            final Request<?> first;
+            try {
+                first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (null == first) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, maxBatchSize - 1);
+            segmenter.runBatch(runBatch);
+            batch.clear();
+        }
+    }
+
+    private static ThreadFactory threadFactory(final boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                // Thread.ofVirtual().name("jieba-segment-", 0).factory(), on JDKs that have it
+                final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+                virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, "jieba-segment-", 0L);
+                return (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.INFO, "virtual threads are not available, using platform threads");
+            }
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "jieba-segment-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Request<T> {
+
+        final Function<JiebaSegmenter, T> task;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Request(final Function<JiebaSegmenter, T> task) {
+            this.task = task;
+        }
+
+        // an Error fails this request only, the worker goes on with the next one
+        void run(final JiebaSegmenter segmenter) {
+            try {
+                future.complete(task.apply(segmenter));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -4,37 +4,59 @@ import java.util.regex.Pattern;
 
 
 public class CharacterUtil {
+    /**
+     * @deprecated the segmenter scans these tokens by hand, see
+     * {@link #skipTokenEnd(CharSequence, int, int)}
+     */
+    @Deprecated
     public static Pattern reSkip = Pattern.compile("(\\d+\\.\\d+|[a-zA-Z0-9]+)");
     private static final char[] connectors = new char[]{'+', '#', '&', '.', '_', '-'};
 
+    // one entry per char: the normalized char in the low 16 bits, the class of the char above
+    static final int CHINESE = 1 << 16;
+    static final int ENGLISH = 1 << 17;
+    static final int DIGIT = 1 << 18;
+    static final int CONNECTOR = 1 << 19;
+    // ccFind of the normalized char
+    static final int NORMALIZED_CC = 1 << 20;
+
+    private static final int CC = CHINESE | ENGLISH | DIGIT | CONNECTOR;
+
+    private static final int[] TABLE = new int[Character.MAX_VALUE + 1];
+
+    static {
+        for (int i = 0; i <= Character.MAX_VALUE; ++i) {
+            TABLE[i] = classOf((char) i);
+        }
+        for (int i = 0; i <= Character.MAX_VALUE; ++i) {
+            final char normalized = normalizeOf((char) i);
+            TABLE[i] |= normalized | ((TABLE[normalized] & CC) != 0 ? NORMALIZED_CC : 0);
+        }
+    }
+
 
     public static boolean isChineseLetter(char ch) {
-        return ch >= 0x4E00 && ch <= 0x9FA5;
+        return (TABLE[ch] & CHINESE) != 0;
     }
 
 
     public static boolean isEnglishLetter(char ch) {
-        return (ch >= 0x0041 && ch <= 0x005A) || (ch >= 0x0061 && ch <= 0x007A);
+        return (TABLE[ch] & ENGLISH) != 0;
     }
 
 
     public static boolean isDigit(char ch) {
-        return ch >= 0x0030 && ch <= 0x0039;
+        return (TABLE[ch] & DIGIT) != 0;
     }
 
 
     public static boolean isConnector(char ch) {
-        for (char connector : connectors) {
-            if (ch == connector) {
-                return true;
-            }
-        }
-        return false;
+        return (TABLE[ch] & CONNECTOR) != 0;
     }
 
 
     public static boolean ccFind(char ch) {
-        return isChineseLetter(ch) || isEnglishLetter(ch) || isDigit(ch) || isConnector(ch);
+        return (TABLE[ch] & CC) != 0;
     }
 
 
@@ -45,6 +67,77 @@ public class CharacterUtil {
      * @return 转换后的字符
      */
     public static char normalize(char input) {
+        return (char) TABLE[input];
+    }
+
+
+    /**
+     * normalize and classify in one lookup: (char) entry is
+     * {@link #normalize(char)}, entry &amp; {@link #NORMALIZED_CC} tells
+     * {@link #ccFind(char)} of the normalized char
+     *
+     * @param input
+     * @return int
+     */
+    static int lookup(char input) {
+        return TABLE[input];
+    }
+
+
+    /**
+     * the end of the token at text[begin] the way reSkip finds it: a decimal
+     * such as 3.14, else a run of ASCII letters and digits
+     *
+     * @param text
+     * @param begin
+     * @param end   the token does not extend beyond
+     * @return the end of the token, begin if no token starts at begin
+     */
+    public static int skipTokenEnd(CharSequence text, int begin, int end) {
+        final int entry = TABLE[text.charAt(begin)];
+        if ((entry & DIGIT) != 0) {
+            int i = begin + 1;
+            while (i < end && isDigit(text.charAt(i))) {
+                ++i;
+            }
+            if (i + 1 < end && text.charAt(i) == '.' && isDigit(text.charAt(i + 1))) {
+                i += 2;
+                while (i < end && isDigit(text.charAt(i))) {
+                    ++i;
+                }
+                return i;
+            }
+        } else if ((entry & ENGLISH) == 0) {
+            return begin;
+        }
+        int i = begin + 1;
+        while (i < end && (TABLE[text.charAt(i)] & (ENGLISH | DIGIT)) != 0) {
+            ++i;
+        }
+        return i;
+    }
+
+
+    private static int classOf(char ch) {
+        if (ch >= 0x4E00 && ch <= 0x9FA5) {
+            return CHINESE;
+        }
+        if ((ch >= 0x0041 && ch <= 0x005A) || (ch >= 0x0061 && ch <= 0x007A)) {
+            return ENGLISH;
+        }
+        if (ch >= 0x0030 && ch <= 0x0039) {
+            return DIGIT;
+        }
+        for (char connector : connectors) {
+            if (ch == connector) {
+                return CONNECTOR;
+            }
+        }
+        return 0;
+    }
+
+
+    private static char normalizeOf(char input) {
         if (input == 12288) {
             return 32;
         } else if (input > 65280 && input < 65375) {
@@ -0,0 +1,164 @@
+package com.huaban.analysis.jieba;
+
+import java.util.Arrays;
+
+
+/**
+ * 句子的有向无环词图及最佳切分路径，全部存放在可复用的基本类型数组中
+ * <p>
+ * 位置 i 出发的边为 ends[starts[i]] .. ends[starts[i + 1] - 1]，边上记录词尾位置和词频的对数值。
+ * 数组按需增长，同一个实例可以反复用于不同的句子，但不是线程安全的。
+ */
+final class DAG {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // 超过这个长度的数组用完后不再保留
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+    private int size;
+    private int edgeCount;
+
+    private int[] starts = new int[INITIAL_CAPACITY + 1];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private double[] freqs = new double[INITIAL_CAPACITY];
+
+    private int[] route = new int[INITIAL_CAPACITY + 1];
+    private double[] routeFreqs = new double[INITIAL_CAPACITY + 1];
+
+    // 每个用户词典树的遍历状态
+    private int[] userStates = new int[4];
+
+    /**
+     * 扫描词典，生成所有可能的切词。用户词典与主词典同步遍历，同一个词以排在前面的用户词典的词频为准
+     *
+     * @param dict
+     * @param sentence
+     */
+    void build(final WordDictionary.Snapshot dict, final CharSequence sentence) {
+        final int n = sentence.length();
+        ensureCapacity(n);
+        size = n;
+        edgeCount = 0;
+        final DoubleArrayTrie trie = dict.trie;
+        final int overlays = dict.overlays.length;
+        if (userStates.length < overlays) {
+            userStates = new int[overlays];
+        }
+        final int maxWordLength = dict.maxWordLength;
+        for (int i = 0; i < n; ++i) {
+            starts[i] = edgeCount;
+            // 从 i 出发同时遍历所有词典树，都没有这个前缀时停止
+            int state = DoubleArrayTrie.ROOT;
+            Arrays.fill(userStates, 0, overlays, DoubleArrayTrie.ROOT);
+            for (int j = i, end = Math.min(n, i + maxWordLength); j < end; ++j) {
+                final char ch = sentence.charAt(j);
+                if (state >= 0) {
+                    state = trie.step(state, ch);
+                }
+                final int userId = overlays == 0 ? WordDictionary.Snapshot.DEAD : dict.stepOverlays(userStates, ch);
+                if (state < 0 && userId == WordDictionary.Snapshot.DEAD) {
+                    break;
+                }
+                if (userId >= 0) {
+                    addEdge(j, dict.freq(userId));
+                } else if (state >= 0) {
+                    final int wordId = trie.wordId(state);
+                    if (wordId >= 0) {
+                        addEdge(j, trie.freq(wordId));
+                    }
+                }
+            }
+            if (edgeCount == starts[i]) {
+                addEdge(i, dict.minFreq);
+            }
+        }
+        starts[n] = edgeCount;
+    }
+
+    /**
+     * 动态规划，从后往前计算每个位置出发的最大概率切分
+     */
+    void calc() {
+        route[size] = 0;
+        routeFreqs[size] = 0.0;
+        for (int i = size - 1; i > -1; i--) {
+            int e = starts[i];
+            int best = ends[e];
+            double bestFreq = freqs[e] + routeFreqs[best + 1];
+            for (++e; e < starts[i + 1]; ++e) {
+                final double freq = freqs[e] + routeFreqs[ends[e] + 1];
+                if (bestFreq < freq) {
+                    bestFreq = freq;
+                    best = ends[e];
+                }
+            }
+            route[i] = best;
+            routeFreqs[i] = bestFreq;
+        }
+    }
+
+    /**
+     * 位置 i 出发的最佳切分的词尾位置
+     *
+     * @param i
+     * @return int
+     */
+    int route(final int i) {
+        return route[i];
+    }
+
+    /**
+     * 位置 i 出发的第一条边，位置 i + 1 的第一条边之前都是 i 出发的边
+     *
+     * @param i 0 到句子长度
+     * @return int
+     */
+    int firstEdge(final int i) {
+        return starts[i];
+    }
+
+    /**
+     * 边 e 的词尾位置
+     *
+     * @param e
+     * @return int
+     */
+    int edgeEnd(final int e) {
+        return ends[e];
+    }
+
+    /**
+     * 释放处理超长句子时增长出来的数组
+     */
+    void release() {
+        if (starts.length > MAX_RETAINED_CAPACITY + 1) {
+            starts = new int[INITIAL_CAPACITY + 1];
+            route = new int[INITIAL_CAPACITY + 1];
+            routeFreqs = new double[INITIAL_CAPACITY + 1];
+        }
+        if (ends.length > MAX_RETAINED_CAPACITY) {
+            ends = new int[INITIAL_CAPACITY];
+            freqs = new double[INITIAL_CAPACITY];
+        }
+    }
+
+    private void addEdge(final int end, final double freq) {
+        if (edgeCount == ends.length) {
+            ends = Arrays.copyOf(ends, edgeCount << 1);
+            freqs = Arrays.copyOf(freqs, edgeCount << 1);
+        }
+        ends[edgeCount] = end;
+        freqs[edgeCount] = freq;
+        ++edgeCount;
+    }
+
+    private void ensureCapacity(final int n) {
+        if (n + 1 > starts.length) {
+            final int capacity = Math.max(n + 1, starts.length << 1);
+            starts = new int[capacity];
+            route = new int[capacity];
+            routeFreqs = new double[capacity];
+        }
+    }
+}
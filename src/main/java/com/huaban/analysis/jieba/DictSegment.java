@@ -1,17 +1,17 @@
 package com.huaban.analysis.jieba;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 
 /**
  * 词典树分段，表示词典树的一个分枝
+ * <p>
+ * 仅在加载词典时使用，加载完成后编译为 {@link DoubleArrayTrie}
  */
 class DictSegment implements Comparable<DictSegment> {
 
-    // 公用字典表，存储汉字
-    private static final Map<Character, Character> charMap = new HashMap<Character, Character>(16, 0.95f);
-
     // Map存储结构
     private Map<Character, DictSegment> segments = new HashMap<>(4);
 
@@ -21,6 +21,9 @@ class DictSegment implements Comparable<DictSegment> {
     // 当前DictSegment状态 ,默认 0 , 1表示从根节点到当前节点的路径表示一个词
     private int nodeState = 0;
 
+    // 词频的对数值，仅当 nodeState 为 1 时有效
+    private double freq;
+
     DictSegment(final char nodeChar) {
         this.nodeChar = nodeChar;
     }
@@ -30,68 +33,51 @@ class DictSegment implements Comparable<DictSegment> {
     }
 
     /**
-     * 匹配词段
+     * 是否是一个完整的词
      *
-     * @param charArray
-     * @return Hit
+     * @return boolean
      */
-    Hit match(char[] charArray) {
-        return this.match(charArray, 0, charArray.length);
+    boolean isWord() {
+        return nodeState == 1;
     }
 
-
     /**
-     * 匹配词段
+     * 词频的对数值
      *
-     * @param charArray
-     * @param begin
-     * @param length
-     * @return Hit
+     * @return double
      */
-    Hit match(char[] charArray, int begin, int length) {
-        return this.match(charArray, begin, begin, length);
+    double getFreq() {
+        return freq;
     }
 
+    /**
+     * 按字符升序返回子节点
+     *
+     * @return DictSegment[]
+     */
+    DictSegment[] getChildren() {
+        final DictSegment[] children = segments.values().toArray(new DictSegment[segments.size()]);
+        Arrays.sort(children);
+        return children;
+    }
 
     /**
-     * 匹配词段
+     * 加载填充词典片段
      *
      * @param charArray
-     * @param begin
-     * @param length
-     * @param searchHit
-     * @return Hit
+     * @param freq      词频的对数值
      */
-    Hit match(char[] charArray, int begin, int pos, int length) {
-
-        if (length == 0) {
-            final Hit possibleHit = new Hit(begin, pos);
-            // STEP3 没有找到DictSegment， 将HIT设置为不匹配
-            if (nodeState == 1) {
-                possibleHit.setMatch();
-            }
-
-            return possibleHit;
-        }
-
-        final Character keyChar = charArray[pos];
-        final DictSegment ds = segments.get(keyChar);
-
-        // STEP2 找到DictSegment，判断词的匹配状态，是否继续递归，还是返回结果
-        if (ds != null) {
-            return ds.match(charArray, begin, pos + 1, length - 1);
-        }
-
-        return new Hit(begin, pos);
+    void fillSegment(char[] charArray, double freq) {
+        this.fillSegment(charArray, 0, charArray.length, 1, freq);
     }
 
     /**
-     * 加载填充词典片段
+     * 从词典中屏蔽一个词，树中没有的词不做处理
      *
      * @param charArray
      */
-    void fillSegment(char[] charArray) {
-        this.fillSegment(charArray, 0, charArray.length, 1);
+    void disableSegment(char[] charArray) {
+        this.fillSegment(charArray, 0, charArray.length, 0, 0.0);
     }
 
     /**
@@ -101,16 +87,11 @@ class DictSegment implements Comparable<DictSegment> {
      * @param begin
      * @param length
      * @param enabled
+     * @param freq
      */
-    private void fillSegment(char[] charArray, int begin, int length, int enabled) {
-        // 获取字典表中的汉字对象
-        Character beginChar = charArray[begin];
-        Character keyChar = charMap.get(beginChar);
-        // 字典中没有该字，则将其添加入字典
-        if (keyChar == null) {
-            charMap.put(beginChar, beginChar);
-            keyChar = beginChar;
-        }
+    private void fillSegment(char[] charArray, int begin, int length, int enabled, double freq) {
+        // 节点只属于本棵树，不同线程可以同时构建各自的词典树
+        final char keyChar = charArray[begin];
 
         // 搜索当前节点的存储，查询对应keyChar的keyChar，如果没有则创建
         DictSegment ds = lookForSegment(keyChar, enabled);
@@ -118,11 +99,12 @@ class DictSegment implements Comparable<DictSegment> {
             // 处理keyChar对应的segment
             if (length > 1) {
                 // 词元还没有完全加入词典树
-                ds.fillSegment(charArray, begin + 1, length - 1, enabled);
+                ds.fillSegment(charArray, begin + 1, length - 1, enabled, freq);
             } else if (length == 1) {
                 // 已经是词元的最后一个char,设置当前节点状态为enabled，
                 // enabled=1表明一个完整的词，enabled=0表示从词典中屏蔽当前词
                 ds.nodeState = enabled;
+                ds.freq = freq;
             }
         }
     }
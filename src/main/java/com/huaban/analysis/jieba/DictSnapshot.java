@@ -0,0 +1,164 @@
+package com.huaban.analysis.jieba;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+
+/**
+ * precompiled binary snapshot of the {@link WordDictionary}: the trie, the
+ * normalized log frequencies, minFreq and total, loaded with one bulk read.
+ * <p>
+ * compile the main dict plus user dicts with
+ * <pre>
+ * java -cp jieba-analysis.jar com.huaban.analysis.jieba.DictSnapshot dict.snapshot conf
+ * </pre>
+ * and put the output on the classpath as {@value #SNAPSHOT_RESOURCE}, or point
+ * the {@value #SNAPSHOT_PROPERTY} system property at it.
+ * <p>
+ * with {@value #MMAP_PROPERTY}=true a snapshot file is memory mapped and served
+ * in place instead of being copied to the heap, so every JVM on a host that maps
+ * the same file shares one copy in the page cache.
+ */
+public final class DictSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(DictSnapshot.class.getName());
+
+    static final String SNAPSHOT_PROPERTY = "jieba.dict.snapshot";
+    static final String SNAPSHOT_RESOURCE = "/dict.snapshot";
+
+    static final String MMAP_PROPERTY = "jieba.dict.mmap";
+
+    // "JBDT"
+    private static final int MAGIC = 0x4a424454;
+    private static final int VERSION = 3;
+
+    // magic, version, total, minFreq
+    private static final int HEADER_BYTES = Integer.BYTES * 2 + Double.BYTES * 2;
+
+    private DictSnapshot() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: DictSnapshot <output> [userDictDir ...]");
+            System.exit(1);
+        }
+
+        // always compile from the text dictionaries, never from an older snapshot
+        final WordDictionary dict = new WordDictionary(false);
+        dict.loadDict();
+        for (int i = 1; i < args.length; ++i) {
+            dict.init(Paths.get(args[i]));
+        }
+        write(dict, Paths.get(args[0]));
+    }
+
+    /**
+     * write the current state of the dictionary
+     *
+     * @param dict
+     * @param output
+     * @throws IOException
+     */
+    static void write(final WordDictionary dict, final Path output) throws IOException {
+        final long s = System.currentTimeMillis();
+        final WordDictionary.Snapshot snapshot = dict.snapshot();
+        // user words are compiled into the snapshot with the main dict
+        final DoubleArrayTrie trie = snapshot.compact();
+        final int size = HEADER_BYTES + trie.byteSize();
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putDouble(snapshot.total).putDouble(snapshot.minFreq);
+        trie.writeTo(buffer);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        LOGGER.info(String.format(Locale.getDefault(), "dict snapshot %s written, tot words:%d, size:%d bytes, time elapsed:%dms",
+                output.toString(), trie.wordCount(), size, System.currentTimeMillis() - s));
+    }
+
+    /**
+     * read the configured snapshot into the dictionary
+     *
+     * @param dict
+     * @return false if no usable snapshot is found
+     * @throws IOException
+     */
+    static boolean load(final WordDictionary dict) throws IOException {
+        final String location = System.getProperty(SNAPSHOT_PROPERTY);
+        final ByteBuffer buffer;
+        if (null != location && !location.isEmpty()) {
+            final Path path = Paths.get(location);
+            if (!Files.isRegularFile(path)) {
+                LOGGER.warning(String.format(Locale.getDefault(), "dict snapshot %s not found", location));
+                return false;
+            }
+            if (Boolean.getBoolean(MMAP_PROPERTY)) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            } else {
+                buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            }
+        } else {
+            try (InputStream is = DictSnapshot.class.getResourceAsStream(SNAPSHOT_RESOURCE)) {
+                if (null == is) {
+                    return false;
+                }
+                buffer = ByteBuffer.wrap(readFully(is));
+            }
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            LOGGER.warning("dict snapshot is not recognized, ignored");
+            return false;
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            LOGGER.warning(String.format(Locale.getDefault(), "dict snapshot version %d is not supported, ignored", version));
+            return false;
+        }
+
+        final double total = buffer.getDouble();
+        final double minFreq = buffer.getDouble();
+        final DoubleArrayTrie trie = buffer.isDirect() ? DoubleArrayTrie.map(buffer) : DoubleArrayTrie.readFrom(buffer);
+        dict.restore(trie, total, minFreq);
+        return true;
+    }
+
+    /**
+     * read a stream of unknown length, such as a classpath resource, to its end
+     *
+     * @param is
+     * @return the bytes read
+     * @throws IOException
+     */
+    public static byte[] readFully(final InputStream is) throws IOException {
+        byte[] bytes = new byte[1 << 20];
+        int length = 0;
+        int n;
+        while ((n = is.read(bytes, length, bytes.length - length)) > 0) {
+            length += n;
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length << 1);
+            }
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+}
@@ -0,0 +1,142 @@
+package com.huaban.analysis.jieba;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * applies created, modified and deleted user dict files of one directory to
+ * the {@link WordDictionary} while it is in use, see
+ * {@link WordDictionary#watch(Path)}. only the changed words are applied, the
+ * main dictionary is not rebuilt.
+ */
+public final class DictWatcher implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(DictWatcher.class.getName());
+
+    // events arriving within this window are applied as one reload
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    private final WordDictionary dict;
+    private final Path dir;
+    private final String suffix;
+    private final WatchService watcher;
+    private final Thread thread;
+
+    // dict files seen in the directory, a rescan after lost events removes the missing ones
+    private final Set<Path> known = new LinkedHashSet<>();
+
+    DictWatcher(final WordDictionary dict, final Path dir, final String suffix) throws IOException {
+        this.dict = dict;
+        this.dir = dir.toAbsolutePath();
+        this.suffix = suffix;
+        this.watcher = this.dir.getFileSystem().newWatchService();
+        try {
+            this.dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            known.addAll(list());
+        } catch (IOException e) {
+            watcher.close();
+            throw e;
+        }
+        this.thread = new Thread(this::watch, "jieba-dict-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        LOGGER.info(String.format(Locale.getDefault(), "watching user dict directory %s", this.dir.toString()));
+    }
+
+    /**
+     * stop watching, the words loaded so far stay in the dictionary
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+        thread.interrupt();
+    }
+
+    private void watch() {
+        final Set<Path> changed = new LinkedHashSet<>();
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean overflow = false;
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                            continue;
+                        }
+                        final Path path = dir.resolve((Path) event.context());
+                        if (path.getFileName().toString().endsWith(suffix)) {
+                            changed.add(path);
+                        }
+                    }
+                    if (!key.reset()) {
+                        LOGGER.warning(String.format(Locale.getDefault(), "user dict directory %s is gone, stop watching", dir.toString()));
+                        watcher.close();
+                        return;
+                    }
+                    // saving a file raises several events, wait for the rest of them
+                    key = watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (null != key);
+
+                if (overflow) {
+                    changed.addAll(known);
+                    changed.addAll(list());
+                }
+                reload(changed);
+                changed.clear();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, String.format(Locale.getDefault(), "%s: watch user dict failure!", dir.toString()), e);
+        }
+    }
+
+    private void reload(final Set<Path> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        final long s = System.currentTimeMillis();
+        try {
+            dict.reloadUserDicts(changed);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, String.format(Locale.getDefault(), "%s: reload user dict failure!", dir.toString()), e);
+            return;
+        }
+        for (Path path : changed) {
+            if (Files.isRegularFile(path)) {
+                known.add(path);
+            } else {
+                known.remove(path);
+            }
+        }
+        LOGGER.info(String.format(Locale.getDefault(), "user dict reload of %d files finished, time elapsed %d ms",
+                changed.size(), System.currentTimeMillis() - s));
+    }
+
+    private Set<Path> list() throws IOException {
+        final Set<Path> paths = new LinkedHashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, String.format(Locale.getDefault(), "*%s", suffix))) {
+            for (Path path : stream) {
+                paths.add(path.toAbsolutePath());
+            }
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,636 @@
+package com.huaban.analysis.jieba;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.function.ObjDoubleConsumer;
+
+
+/**
+ * 双数组词典树(Double-Array Trie)
+ * <p>
+ * 由排好序的词表或 {@link DictSegment} 编译而来，构建完成后不可变。
+ * 状态 s 经字符 c 转移到 t = base[s] + c + 1，当且仅当 check[t] == s；
+ * 词尾使用转移码 0 指向一个叶子状态，叶子的 base 为 -(词编号 + 1)，词频按词编号存放。
+ * <p>
+ * 数据既可以放在堆上，也可以直接读取内存映射的词典快照，见 {@link #map(ByteBuffer)}。
+ */
+abstract class DoubleArrayTrie {
+
+    // 根节点状态
+    static final int ROOT = 0;
+
+    // 空闲槽位标记
+    private static final int FREE = -1;
+
+    // 词尾转移码，字符 c 的转移码为 c + 1
+    private static final int END_CODE = 0;
+
+    // 快照头部: 状态数, 词数, 前缀位图长度, 最大词长
+    private static final int HEADER_BYTES = Integer.BYTES * 4;
+
+    abstract int base(int state);
+
+    abstract int check(int state);
+
+    /**
+     * 前缀位图，拥有非词尾子节点的状态为 1
+     */
+    abstract long prefixBits(int index);
+
+    /**
+     * 状态数
+     */
+    abstract int size();
+
+    /**
+     * 词数
+     */
+    abstract int wordCount();
+
+    /**
+     * 最长的词的长度
+     */
+    abstract int maxWordLength();
+
+    /**
+     * 词频的对数值
+     *
+     * @param wordId 词编号
+     * @return double
+     */
+    abstract double freq(int wordId);
+
+    /**
+     * 匹配词段
+     *
+     * @param charArray
+     * @return Hit
+     */
+    Hit match(char[] charArray) {
+        return this.match(charArray, 0, charArray.length);
+    }
+
+    /**
+     * 匹配词段
+     *
+     * @param charArray
+     * @param begin
+     * @param length
+     * @return Hit
+     */
+    Hit match(char[] charArray, int begin, int length) {
+        int state = ROOT;
+        int pos = begin;
+        for (final int end = begin + length; pos < end; ++pos) {
+            state = transition(state, charArray[pos] + 1);
+            if (state < 0) {
+                return new Hit(begin, pos);
+            }
+        }
+
+        final Hit hit = new Hit(begin, pos);
+        if (transition(state, END_CODE) >= 0) {
+            hit.setMatch();
+        }
+        if (isPrefix(state)) {
+            hit.setPrefix();
+        }
+        return hit;
+    }
+
+    /**
+     * 查找词编号
+     *
+     * @param word
+     * @return 词编号，不是词时返回 -1
+     */
+    int wordId(CharSequence word) {
+        return wordId(word, 0, word.length());
+    }
+
+    /**
+     * 查找 text 中 [begin, end) 一段的词编号
+     *
+     * @param text
+     * @param begin
+     * @param end
+     * @return 词编号，不是词时返回 -1
+     */
+    int wordId(CharSequence text, int begin, int end) {
+        int state = ROOT;
+        for (int i = begin; i < end && state >= 0; ++i) {
+            state = transition(state, text.charAt(i) + 1);
+        }
+        return state < 0 ? -1 : wordId(state);
+    }
+
+    /**
+     * 从状态 state 读入一个字符，用于逐字推进的匹配，每次从 {@link #ROOT} 开始
+     *
+     * @param state
+     * @param ch
+     * @return 新状态，无法继续匹配时返回 -1
+     */
+    int step(final int state, final char ch) {
+        return transition(state, ch + 1);
+    }
+
+    /**
+     * 状态对应的词编号
+     *
+     * @param state
+     * @return 词编号，从根节点到该状态的路径不是词时返回 -1
+     */
+    int wordId(final int state) {
+        final int leaf = transition(state, END_CODE);
+        return leaf < 0 ? -1 : -base(leaf) - 1;
+    }
+
+    private int transition(final int state, final int code) {
+        final int t = base(state) + code;
+        if (t < 0 || t >= size() || check(t) != state) {
+            return -1;
+        }
+        return t;
+    }
+
+    private boolean isPrefix(final int state) {
+        return (prefixBits(state >>> 6) & (1L << state)) != 0;
+    }
+
+    /**
+     * 遍历所有词及其词频
+     *
+     * @param consumer
+     */
+    void forEachWord(final ObjDoubleConsumer<String> consumer) {
+        final int size = size();
+        final int[] firstChild = new int[size];
+        final int[] nextSibling = new int[size];
+        Arrays.fill(firstChild, FREE);
+        for (int t = size - 1; t > ROOT; --t) {
+            final int parent = check(t);
+            if (parent != FREE) {
+                nextSibling[t] = firstChild[parent];
+                firstChild[parent] = t;
+            }
+        }
+        forEachWord(ROOT, new StringBuilder(), firstChild, nextSibling, consumer);
+    }
+
+    private void forEachWord(final int state, final StringBuilder path, final int[] firstChild, final int[] nextSibling,
+                             final ObjDoubleConsumer<String> consumer) {
+        final int b = base(state);
+        for (int t = firstChild[state]; t != FREE; t = nextSibling[t]) {
+            final int code = t - b;
+            if (code == END_CODE) {
+                consumer.accept(path.toString(), freq(-base(t) - 1));
+            } else {
+                path.append((char) (code - 1));
+                forEachWord(t, path, firstChild, nextSibling, consumer);
+                path.setLength(path.length() - 1);
+            }
+        }
+    }
+
+    /**
+     * 序列化后占用的字节数
+     *
+     * @return int
+     */
+    int byteSize() {
+        return HEADER_BYTES + size() * Integer.BYTES * 2 + bitWords(size()) * Long.BYTES + wordCount() * Double.BYTES;
+    }
+
+    /**
+     * 写入快照
+     *
+     * @param buffer
+     */
+    void writeTo(final ByteBuffer buffer) {
+        final int size = size();
+        final int bitWords = bitWords(size);
+        final int words = wordCount();
+        buffer.putInt(size).putInt(words).putInt(bitWords).putInt(maxWordLength());
+        for (int i = 0; i < size; ++i) {
+            buffer.putInt(base(i));
+        }
+        for (int i = 0; i < size; ++i) {
+            buffer.putInt(check(i));
+        }
+        for (int i = 0; i < bitWords; ++i) {
+            buffer.putLong(prefixBits(i));
+        }
+        for (int i = 0; i < words; ++i) {
+            buffer.putDouble(freq(i));
+        }
+    }
+
+    /**
+     * 从快照读取到堆上
+     *
+     * @param buffer
+     * @return DoubleArrayTrie
+     */
+    static DoubleArrayTrie readFrom(final ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        final int[] base = new int[size];
+        final int[] check = new int[size];
+        final double[] freqs = new double[buffer.getInt()];
+        final long[] prefixes = new long[buffer.getInt()];
+        final int maxWordLength = buffer.getInt();
+
+        buffer.asIntBuffer().get(base).get(check);
+        buffer.position(buffer.position() + size * Integer.BYTES * 2);
+        buffer.asLongBuffer().get(prefixes);
+        buffer.position(buffer.position() + prefixes.length * Long.BYTES);
+        buffer.asDoubleBuffer().get(freqs);
+        buffer.position(buffer.position() + freqs.length * Double.BYTES);
+        return new Heap(base, check, prefixes, freqs, maxWordLength);
+    }
+
+    /**
+     * 直接使用快照中的数据，不复制到堆上。多个进程映射同一个快照文件时共享同一份页缓存。
+     *
+     * @param buffer 通常是只读的 {@link java.nio.MappedByteBuffer}
+     * @return DoubleArrayTrie
+     */
+    static DoubleArrayTrie map(final ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        final int words = buffer.getInt();
+        final int bitWords = buffer.getInt();
+        final int maxWordLength = buffer.getInt();
+
+        final int baseOffset = buffer.position();
+        final int checkOffset = baseOffset + size * Integer.BYTES;
+        final int prefixOffset = checkOffset + size * Integer.BYTES;
+        final int freqOffset = prefixOffset + bitWords * Long.BYTES;
+        buffer.position(freqOffset + words * Double.BYTES);
+        return new Mapped(buffer, size, words, maxWordLength, baseOffset, checkOffset, prefixOffset, freqOffset);
+    }
+
+    private static int bitWords(final int size) {
+        return (size + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * 由词典树编译双数组
+     *
+     * @param root 词典树根节点
+     * @return DoubleArrayTrie
+     */
+    static DoubleArrayTrie build(final DictSegment root) {
+        return new Builder().build(root);
+    }
+
+    /**
+     * 由排好序的词表编译双数组，省去加载词典时构建词典树
+     *
+     * @param words     按 {@link String#compareTo(String)} 升序排列且不重复的词
+     * @param wordFreqs 对应词的词频对数值
+     * @return DoubleArrayTrie
+     */
+    static DoubleArrayTrie build(final String[] words, final double[] wordFreqs) {
+        return new Builder().build(words, wordFreqs);
+    }
+
+
+    private static final class Heap extends DoubleArrayTrie {
+
+        private final int[] base;
+        private final int[] check;
+        private final long[] prefixes;
+        private final double[] freqs;
+        private final int maxWordLength;
+
+        Heap(final int[] base, final int[] check, final long[] prefixes, final double[] freqs, final int maxWordLength) {
+            this.base = base;
+            this.check = check;
+            this.prefixes = prefixes;
+            this.freqs = freqs;
+            this.maxWordLength = maxWordLength;
+        }
+
+        @Override
+        int base(final int state) {
+            return base[state];
+        }
+
+        @Override
+        int check(final int state) {
+            return check[state];
+        }
+
+        @Override
+        long prefixBits(final int index) {
+            return prefixes[index];
+        }
+
+        @Override
+        int size() {
+            return check.length;
+        }
+
+        @Override
+        int wordCount() {
+            return freqs.length;
+        }
+
+        @Override
+        int maxWordLength() {
+            return maxWordLength;
+        }
+
+        @Override
+        double freq(final int wordId) {
+            return freqs[wordId];
+        }
+    }
+
+
+    private static final class Mapped extends DoubleArrayTrie {
+
+        private final ByteBuffer buffer;
+        private final int size;
+        private final int words;
+        private final int maxWordLength;
+        private final int baseOffset;
+        private final int checkOffset;
+        private final int prefixOffset;
+        private final int freqOffset;
+
+        Mapped(final ByteBuffer buffer, final int size, final int words, final int maxWordLength, final int baseOffset,
+               final int checkOffset, final int prefixOffset, final int freqOffset) {
+            this.buffer = buffer;
+            this.size = size;
+            this.words = words;
+            this.maxWordLength = maxWordLength;
+            this.baseOffset = baseOffset;
+            this.checkOffset = checkOffset;
+            this.prefixOffset = prefixOffset;
+            this.freqOffset = freqOffset;
+        }
+
+        @Override
+        int base(final int state) {
+            return buffer.getInt(baseOffset + state * Integer.BYTES);
+        }
+
+        @Override
+        int check(final int state) {
+            return buffer.getInt(checkOffset + state * Integer.BYTES);
+        }
+
+        @Override
+        long prefixBits(final int index) {
+            return buffer.getLong(prefixOffset + index * Long.BYTES);
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        int wordCount() {
+            return words;
+        }
+
+        @Override
+        int maxWordLength() {
+            return maxWordLength;
+        }
+
+        @Override
+        double freq(final int wordId) {
+            return buffer.getDouble(freqOffset + wordId * Double.BYTES);
+        }
+    }
+
+
+    private static final class Builder {
+
+        private int[] base = new int[Character.MAX_VALUE + 2];
+        private int[] check = new int[Character.MAX_VALUE + 2];
+        private long[] prefixes = new long[bitWords(Character.MAX_VALUE + 2)];
+        private double[] freqs = new double[1024];
+        private int words = 0;
+        private int maxWordLength = 0;
+
+        // 空闲槽位并查集，nextFree 沿链指向不小于当前位置的第一个空闲槽位
+        private int[] nextFree = new int[Character.MAX_VALUE + 2];
+
+        // 按子节点数量分组记录上次找到 base 的位置，同规模的节点从这里继续找
+        private final int[] searchFrom = new int[Integer.SIZE + 1];
+
+        // 最后一个被占用的槽位
+        private int maxUsed = ROOT;
+
+        DoubleArrayTrie build(final DictSegment root) {
+            init();
+            final Deque<DictSegment> nodes = new ArrayDeque<>();
+            final Deque<Integer> states = new ArrayDeque<>();
+            final Deque<Integer> depths = new ArrayDeque<>();
+            nodes.add(root);
+            states.add(ROOT);
+            depths.add(0);
+            while (!nodes.isEmpty()) {
+                final DictSegment node = nodes.poll();
+                final int state = states.poll();
+                final int depth = depths.poll();
+                final DictSegment[] children = node.getChildren();
+                final int terminal = node.isWord() ? 1 : 0;
+                if (children.length + terminal == 0) {
+                    continue;
+                }
+
+                final int[] codes = new int[children.length + terminal];
+                for (int i = 0; i < children.length; ++i) {
+                    codes[i + terminal] = children[i].getNodeChar() + 1;
+                }
+                final int b = place(state, codes, codes.length, terminal == 1, node.getFreq(), depth);
+                for (int i = 0; i < children.length; ++i) {
+                    nodes.add(children[i]);
+                    states.add(b + codes[i + terminal]);
+                    depths.add(depth + 1);
+                }
+            }
+            return finish();
+        }
+
+        /**
+         * 直接由排好序的词表编译，不经过词典树。
+         * 同一前缀的词在词表中连续，一个节点即词表中的一段 [lo, hi)，按层遍历，与由词典树编译的结果相同。
+         */
+        DoubleArrayTrie build(final String[] words, final double[] wordFreqs) {
+            init();
+            // 待处理节点: 状态, 深度, lo, hi
+            int[] queue = new int[4 * 1024];
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = ROOT;
+            queue[tail++] = 0;
+            queue[tail++] = 0;
+            queue[tail++] = words.length;
+            int[] codes = new int[64];
+            int[] starts = new int[64];
+            while (head < tail) {
+                final int state = queue[head++];
+                final int depth = queue[head++];
+                int lo = queue[head++];
+                final int hi = queue[head++];
+
+                // 最短的词排在最前，它若恰好终止于此，当前节点就是词尾
+                final boolean terminal = lo < hi && words[lo].length() == depth;
+                final double freq = terminal ? wordFreqs[lo] : 0.0;
+                int count = 0;
+                if (terminal) {
+                    codes[count++] = END_CODE;
+                    ++lo;
+                }
+                final int firstChild = count;
+                for (int i = lo; i < hi; ) {
+                    final char ch = words[i].charAt(depth);
+                    if (count == codes.length) {
+                        codes = Arrays.copyOf(codes, count << 1);
+                        starts = Arrays.copyOf(starts, count << 1);
+                    }
+                    codes[count] = ch + 1;
+                    starts[count++] = i;
+                    do {
+                        ++i;
+                    } while (i < hi && words[i].charAt(depth) == ch);
+                }
+                if (count == 0) {
+                    continue;
+                }
+
+                final int b = place(state, codes, count, terminal, freq, depth);
+                final int needed = (count - firstChild) * 4;
+                if (tail + needed > queue.length) {
+                    // 已处理的部分不再需要
+                    System.arraycopy(queue, head, queue, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                    if (tail + needed > queue.length) {
+                        queue = Arrays.copyOf(queue, Math.max(queue.length << 1, tail + needed));
+                    }
+                }
+                for (int i = firstChild; i < count; ++i) {
+                    queue[tail++] = b + codes[i];
+                    queue[tail++] = depth + 1;
+                    queue[tail++] = starts[i];
+                    queue[tail++] = i + 1 < count ? starts[i + 1] : hi;
+                }
+            }
+            return finish();
+        }
+
+        private void init() {
+            Arrays.fill(check, FREE);
+            for (int i = 0; i < nextFree.length; ++i) {
+                nextFree[i] = i;
+            }
+            occupy(ROOT, ROOT);
+        }
+
+        /**
+         * 为状态 state 的一组升序转移码找到 base 并占用槽位，词尾转移码在最前
+         *
+         * @return base
+         */
+        private int place(final int state, final int[] codes, final int count, final boolean terminal,
+                          final double freq, final int depth) {
+            final int b = findBase(codes, count);
+            base[state] = b;
+            if (count > (terminal ? 1 : 0)) {
+                prefixes[state >>> 6] |= 1L << state;
+            }
+            for (int i = 0; i < count; ++i) {
+                occupy(b + codes[i], state);
+            }
+            if (terminal) {
+                base[b + END_CODE] = -addWord(freq) - 1;
+                maxWordLength = Math.max(maxWordLength, depth);
+            }
+            return b;
+        }
+
+        private DoubleArrayTrie finish() {
+            final int size = maxUsed + 1;
+            return new Heap(Arrays.copyOf(base, size), Arrays.copyOf(check, size),
+                    Arrays.copyOf(prefixes, bitWords(size)), Arrays.copyOf(freqs, words), maxWordLength);
+        }
+
+        private int addWord(final double freq) {
+            if (words == freqs.length) {
+                freqs = Arrays.copyOf(freqs, words << 1);
+            }
+            freqs[words] = freq;
+            return words++;
+        }
+
+        /**
+         * 为一组升序转移码查找可用的 base，所有 base + code 槽位均须空闲
+         */
+        private int findBase(final int[] codes, final int count) {
+            final int first = codes[0];
+            final int last = codes[count - 1];
+            final int group = Integer.SIZE - Integer.numberOfLeadingZeros(count);
+            int pos = findFree(Math.max(first + 1, searchFrom[group]));
+            outer:
+            while (true) {
+                final int b = pos - first;
+                ensureCapacity(b + last + 1);
+                for (int i = 1; i < count; ++i) {
+                    if (check[b + codes[i]] != FREE) {
+                        pos = findFree(pos + 1);
+                        continue outer;
+                    }
+                }
+                searchFrom[group] = pos;
+                return b;
+            }
+        }
+
+        private void occupy(final int slot, final int parent) {
+            check[slot] = parent;
+            nextFree[slot] = slot + 1;
+            maxUsed = Math.max(maxUsed, slot);
+        }
+
+        private int findFree(int pos) {
+            ensureCapacity(pos + 1);
+            int root = pos;
+            while (nextFree[root] != root) {
+                root = nextFree[root];
+                ensureCapacity(root + 1);
+            }
+            // 路径压缩
+            while (nextFree[pos] != root) {
+                final int next = nextFree[pos];
+                nextFree[pos] = root;
+                pos = next;
+            }
+            return root;
+        }
+
+        private void ensureCapacity(final int size) {
+            if (size <= check.length) {
+                return;
+            }
+            final int oldSize = check.length;
+            final int newSize = Math.max(size, oldSize + (oldSize >> 1));
+            base = Arrays.copyOf(base, newSize);
+            check = Arrays.copyOf(check, newSize);
+            nextFree = Arrays.copyOf(nextFree, newSize);
+            prefixes = Arrays.copyOf(prefixes, bitWords(newSize));
+            Arrays.fill(check, oldSize, newSize, FREE);
+            for (int i = oldSize; i < newSize; ++i) {
+                nextFree[i] = i;
+            }
+        }
+    }
+}
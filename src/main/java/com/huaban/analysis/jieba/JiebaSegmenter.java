@@ -2,211 +2,642 @@ package com.huaban.analysis.jieba;
 
 import com.huaban.analysis.jieba.viterbi.FinalSeg;
 
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
+/**
+ * segmenter over the shared {@link WordDictionary} and HMM model.
+ * <p>
+ * a segmenter holds no mutable state, one instance can be shared by any
+ * number of threads. the HMM tables are read only, and every call pins one
+ * immutable {@link WordDictionary} snapshot for its whole run: user dicts
+ * loaded meanwhile are swapped in atomically and apply to later calls.
+ * <p>
+ * segmenters built on an {@link OverlayDictionary} share the main trie with
+ * every other segmenter and look their own words up first. a
+ * {@link SegmentCache} serves repeated short text without segmenting it again.
+ */
 public class JiebaSegmenter {
 
+    // documents per task of a batch, per available processor
+    private static final int BATCH_TASKS_PER_PROCESSOR = 4;
+
+    // shorter slices of a paragraph are not worth a task
+    private static final int PARALLEL_MIN_SLICE_CHARS = 1 << 14;
+
+    // INDEX mode adds the 2 and 3 char dictionary words inside longer words by default
+    public static final int DEFAULT_MAX_SUB_WORD_LENGTH = 3;
+
     private static WordDictionary WORD_DICT = WordDictionary.getInstance();
     private static FinalSeg VITERBI_SEGMENT = FinalSeg.getInstance();
+    private static final SegmenterMetrics METRICS = SegmenterMetrics.getInstance();
+
+    static {
+        // the model lives in the viterbi package, its load is reported from here
+        METRICS.modelLoaded(VITERBI_SEGMENT.getLoadMillis(), VITERBI_SEGMENT.getModelBytes());
+    }
+
+    // DAG, route and string buffers are reused by every sentence a thread segments
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    // null for the shared dictionary as it is
+    private final OverlayDictionary overlay;
+    // null without caching
+    private final SegmentCache cache;
+    private final int maxSubWordLength;
 
     public enum SegMode {
         INDEX,
-        SEARCH
-    }
-
-    private Map<Integer, List<Integer>> createDAG(String sentence) {
-        Map<Integer, List<Integer>> dag = new HashMap<>();
-        DictSegment trie = WORD_DICT.getTrie();
-        char[] chars = sentence.toCharArray();
-        int N = chars.length;
-        int i = 0, j = 0;
-        while (i < N) {
-            Hit hit = trie.match(chars, i, j - i + 1);
-            if (hit.isPrefix() || hit.isMatch()) {
-                if (hit.isMatch()) {
-                    if (!dag.containsKey(i)) {
-                        List<Integer> value = new ArrayList<>();
-                        dag.put(i, value);
-                        value.add(j);
-                    } else {
-                        dag.get(i).add(j);
-                    }
-                }
-                j += 1;
-                if (j >= N) {
-                    i += 1;
-                    j = i;
-                }
-            } else {
-                i += 1;
-                j = i;
-            }
+        SEARCH,
+        // every dictionary word of the DAG, overlapping, without route or HMM
+        FULL
+    }
+
+    public JiebaSegmenter() {
+        this(null);
+    }
+
+    /**
+     * segmenter over the main dictionary plus the words of overlay, for one
+     * tenant among many sharing a JVM
+     *
+     * @param overlay
+     */
+    public JiebaSegmenter(OverlayDictionary overlay) {
+        this(overlay, null);
+    }
+
+    /**
+     * @param overlay null for the shared dictionary
+     * @param cache   results of short SEARCH paragraphs and sentences, null for none
+     */
+    public JiebaSegmenter(OverlayDictionary overlay, SegmentCache cache) {
+        this(overlay, cache, DEFAULT_MAX_SUB_WORD_LENGTH);
+    }
+
+    /**
+     * @param overlay          null for the shared dictionary
+     * @param cache            results of short SEARCH paragraphs and sentences, null for none
+     * @param maxSubWordLength longest dictionary word INDEX mode adds from inside a longer word
+     */
+    public JiebaSegmenter(OverlayDictionary overlay, SegmentCache cache, int maxSubWordLength) {
+        if (maxSubWordLength < 2) {
+            throw new IllegalArgumentException(String.format(Locale.getDefault(),
+                    "maxSubWordLength %d is less than 2", maxSubWordLength));
         }
-        for (i = 0; i < N; ++i) {
-            if (!dag.containsKey(i)) {
-                List<Integer> value = new ArrayList<>();
-                value.add(i);
-                dag.put(i, value);
-            }
+        this.overlay = overlay;
+        this.cache = cache;
+        this.maxSubWordLength = maxSubWordLength;
+    }
+
+    public List<SegToken> process(String paragraph, SegMode mode) {
+        final WordDictionary.Snapshot dict = snapshot();
+        if (null == cache || mode != SegMode.SEARCH || !cache.accepts(paragraph)) {
+            return process(paragraph, 0, paragraph.length(), mode, dict);
+        }
+        SegToken[] tokens = cache.tokens(paragraph, dict);
+        if (null == tokens) {
+            tokens = process(paragraph, 0, paragraph.length(), mode, dict).toArray(new SegToken[0]);
+            cache.putTokens(paragraph, dict, tokens);
         }
-        return dag;
+        return new ArrayList<>(Arrays.asList(tokens));
     }
 
 
-    private Map<Integer, Pair<Integer>> calc(String sentence, Map<Integer, List<Integer>> dag) {
-        int N = sentence.length();
-        HashMap<Integer, Pair<Integer>> route = new HashMap<Integer, Pair<Integer>>();
-        route.put(N, new Pair<>(0, 0.0));
-        for (int i = N - 1; i > -1; i--) {
-            Pair<Integer> candidate = null;
-            for (Integer x : dag.get(i)) {
-                double freq = WORD_DICT.getFreq(sentence.substring(i, x + 1)) + route.get(x + 1).freq;
-                if (null == candidate) {
-                    candidate = new Pair<>(x, freq);
-                } else if (candidate.freq < freq) {
-                    candidate.freq = freq;
-                    candidate.key = x;
-                }
+    /**
+     * segment a long paragraph in slices on executor, with the same tokens as
+     * {@link #process(String, SegMode)}. the slices end right after a char
+     * outside of {@link CharacterUtil#ccFind(char)}, where sentences never
+     * continue, so they segment independently.
+     *
+     * @param paragraph
+     * @param mode
+     * @param executor
+     * @return List
+     * @throws CompletionException wrapping the first failure of a slice
+     */
+    public List<SegToken> process(String paragraph, SegMode mode, Executor executor) {
+        final int length = paragraph.length();
+        final int slices = Math.min(length / PARALLEL_MIN_SLICE_CHARS,
+                Runtime.getRuntime().availableProcessors() * BATCH_TASKS_PER_PROCESSOR);
+        if (slices < 2) {
+            return process(paragraph, mode);
+        }
+
+        // every slice sees the same dictionary
+        final WordDictionary.Snapshot dict = snapshot();
+        final List<CompletableFuture<List<SegToken>>> futures = new ArrayList<>(slices);
+        int begin = 0;
+        for (int t = 1; t <= slices && begin < length; ++t) {
+            int end = (int) ((long) length * t / slices);
+            while (end < length && end > begin
+                    && (CharacterUtil.lookup(paragraph.charAt(end - 1)) & CharacterUtil.NORMALIZED_CC) != 0) {
+                ++end;
+            }
+            if (end <= begin) {
+                continue;
             }
-            route.put(i, candidate);
+            final int from = begin;
+            final int to = end;
+            futures.add(CompletableFuture.supplyAsync(() -> process(paragraph, from, to, mode, dict), executor));
+            begin = end;
         }
-        return route;
+
+        final List<SegToken> tokens = new ArrayList<>();
+        for (CompletableFuture<List<SegToken>> future : futures) {
+            tokens.addAll(future.join());
+        }
+        return tokens;
     }
 
 
-    public List<SegToken> process(String paragraph, SegMode mode) {
-        List<SegToken> tokens = new ArrayList<>();
-        StringBuilder sb = new StringBuilder();
-        int offset = 0;
-        for (int i = 0; i < paragraph.length(); ++i) {
-            char ch = CharacterUtil.normalize(paragraph.charAt(i));
-            if (CharacterUtil.ccFind(ch)) {
-                sb.append(ch);
+    private List<SegToken> process(String paragraph, int begin, int end, SegMode mode, WordDictionary.Snapshot dict) {
+        final Scratch scratch = SCRATCH.get();
+        scratch.dict = dict;
+        final TokenBuffer buffer = scratch.tokens;
+        process(paragraph, begin, end, mode, buffer, scratch);
+        List<SegToken> tokens = new ArrayList<>(buffer.size());
+        for (int i = 0; i < buffer.size(); ++i) {
+            tokens.add(new SegToken(buffer.word(i), buffer.start(i), buffer.end(i)));
+        }
+        scratch.release();
+
+        return tokens;
+    }
+
+
+    /**
+     * segment into a caller owned buffer, without creating an object per token
+     *
+     * @param paragraph
+     * @param mode
+     * @param out cleared first, then holds the tokens of paragraph
+     * @return out
+     */
+    public TokenBuffer process(String paragraph, SegMode mode, TokenBuffer out) {
+        final Scratch scratch = SCRATCH.get();
+        scratch.dict = snapshot();
+        process(paragraph, mode, out, scratch);
+        scratch.release();
+        return out;
+    }
+
+
+    /**
+     * segment UTF-8 bytes without decoding them into a String
+     *
+     * @param utf8 the bytes from position to limit are segmented, the position is not changed
+     * @param mode
+     * @param out cleared first, then holds the tokens with the absolute byte indexes of utf8
+     * @return out
+     */
+    public TokenBuffer process(ByteBuffer utf8, SegMode mode, TokenBuffer out) {
+        final Scratch scratch = SCRATCH.get();
+        scratch.dict = snapshot();
+        final Utf8Text text = scratch.utf8;
+        text.decode(utf8);
+        process(text, mode, out, scratch);
+        out.toByteOffsets(text, utf8.duplicate());
+        scratch.release();
+        return out;
+    }
+
+
+    public TokenBuffer process(byte[] utf8, int offset, int length, SegMode mode, TokenBuffer out) {
+        return process(ByteBuffer.wrap(utf8, offset, length), mode, out);
+    }
+
+
+    private void process(CharSequence paragraph, SegMode mode, TokenBuffer out, Scratch scratch) {
+        process(paragraph, 0, paragraph.length(), mode, out, scratch);
+    }
+
+
+    /*
+     * segment paragraph[begin, end) with the dictionary pinned in scratch,
+     * offsets are those of paragraph
+     */
+    private void process(CharSequence paragraph, int begin, int end, SegMode mode, TokenBuffer out, Scratch scratch) {
+        final long start = SegmenterMetrics.ENABLED ? SegmenterMetrics.start() : 0L;
+        out.reset(paragraph);
+        final WordDictionary.Snapshot dict = scratch.dict;
+        StringBuilder sb = scratch.sentence;
+        sb.setLength(0);
+        int offset = begin;
+        for (int i = begin; i < end; ++i) {
+            final int entry = CharacterUtil.lookup(paragraph.charAt(i));
+            if ((entry & CharacterUtil.NORMALIZED_CC) != 0) {
+                sb.append((char) entry);
             } else {
                 if (sb.length() > 0) {
-                    // process
-                    if (mode == SegMode.SEARCH) {
-                        for (String word : sentenceProcess(sb.toString())) {
-                            tokens.add(new SegToken(word, offset, offset += word.length()));
-                        }
-                    } else {
-                        for (String token : sentenceProcess(sb.toString())) {
-                            if (token.length() > 2) {
-                                String gram2;
-                                int j = 0;
-                                for (; j < token.length() - 1; ++j) {
-                                    gram2 = token.substring(j, j + 2);
-                                    if (WORD_DICT.containsWord(gram2))
-                                        tokens.add(new SegToken(gram2, offset + j, offset + j + 2));
-                                }
-                            }
-                            if (token.length() > 3) {
-                                String gram3;
-                                int j = 0;
-                                for (; j < token.length() - 2; ++j) {
-                                    gram3 = token.substring(j, j + 3);
-                                    if (WORD_DICT.containsWord(gram3))
-                                        tokens.add(new SegToken(gram3, offset + j, offset + j + 3));
-                                }
-                            }
-                            tokens.add(new SegToken(token, offset, offset += token.length()));
-                        }
-                    }
-                    sb = new StringBuilder();
-                    offset = i;
+                    offset = segment(sb, offset, mode, out, scratch);
+                    sb.setLength(0);
                 }
-                if (WORD_DICT.containsWord(paragraph.substring(i, i + 1)))
-                    tokens.add(new SegToken(paragraph.substring(i, i + 1), offset, ++offset));
-                else
-                    tokens.add(new SegToken(paragraph.substring(i, i + 1), offset, ++offset));
+                out.add(offset, ++offset, out.hasWordIds() ? dict.wordId(paragraph, i, i + 1) : -1);
             }
         }
-        if (sb.length() > 0)
-            if (mode == SegMode.SEARCH) {
-                for (String token : sentenceProcess(sb.toString())) {
-                    tokens.add(new SegToken(token, offset, offset += token.length()));
+        if (sb.length() > 0) {
+            segment(sb, offset, mode, out, scratch);
+        }
+        if (SegmenterMetrics.ENABLED) {
+            METRICS.document(mode, end - begin, start);
+        }
+    }
+
+
+    /**
+     * segment documents in parallel on the common fork join pool
+     *
+     * @param paragraphs
+     * @param mode
+     * @return the tokens of each document, in the iteration order of paragraphs
+     */
+    public List<List<SegToken>> processBatch(Collection<String> paragraphs, SegMode mode) {
+        return processBatch(paragraphs, mode, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * segment documents in parallel on executor, the documents are split into
+     * a few contiguous slices so each task reuses its thread's buffers
+     *
+     * @param paragraphs
+     * @param mode
+     * @param executor
+     * @return the tokens of each document, in the iteration order of paragraphs
+     * @throws CompletionException wrapping the first failure of a task
+     */
+    public List<List<SegToken>> processBatch(Collection<String> paragraphs, SegMode mode, Executor executor) {
+        final String[] documents = paragraphs.toArray(new String[0]);
+        final int n = documents.length;
+        // every task sets its own slots, join publishes them
+        final List<List<SegToken>> results = new ArrayList<>(Collections.nCopies(n, (List<SegToken>) null));
+        final int tasks = Math.min(n, Runtime.getRuntime().availableProcessors() * BATCH_TASKS_PER_PROCESSOR);
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks];
+        for (int t = 0; t < tasks; ++t) {
+            final int from = (int) ((long) n * t / tasks);
+            final int to = (int) ((long) n * (t + 1) / tasks);
+            futures[t] = CompletableFuture.runAsync(() -> {
+                for (int i = from; i < to; ++i) {
+                    results.set(i, process(documents[i], mode));
                 }
-            } else {
-                for (String token : sentenceProcess(sb.toString())) {
-                    if (token.length() > 2) {
-                        String gram2;
-                        int j = 0;
-                        for (; j < token.length() - 1; ++j) {
-                            gram2 = token.substring(j, j + 2);
-                            if (WORD_DICT.containsWord(gram2))
-                                tokens.add(new SegToken(gram2, offset + j, offset + j + 2));
-                        }
-                    }
-                    if (token.length() > 3) {
-                        String gram3;
-                        int j = 0;
-                        for (; j < token.length() - 2; ++j) {
-                            gram3 = token.substring(j, j + 3);
-                            if (WORD_DICT.containsWord(gram3))
-                                tokens.add(new SegToken(gram3, offset + j, offset + j + 3));
-                        }
+            }, executor);
+        }
+        CompletableFuture.allOf(futures).join();
+        return results;
+    }
+
+
+    /**
+     * segment a stream of documents on the common fork join pool
+     *
+     * @param paragraphs
+     * @param mode
+     * @return the tokens of each document, in the encounter order of paragraphs
+     */
+    public List<List<SegToken>> processBatch(Stream<String> paragraphs, SegMode mode) {
+        return paragraphs.parallel().map(paragraph -> process(paragraph, mode)).collect(Collectors.toList());
+    }
+
+
+    /**
+     * segment a stream lazily, only the text up to the next char outside of
+     * {@link CharacterUtil#ccFind(char)} is buffered
+     *
+     * @param reader read to the end, but not closed
+     * @param mode
+     * @return tokens with offsets counted from the start of the reader
+     */
+    public TokenStream tokenize(Reader reader, SegMode mode) {
+        return new TokenStream(this, reader, mode);
+    }
+
+
+    public TokenStream tokenize(CharSequence text, SegMode mode) {
+        return new TokenStream(this, text, mode);
+    }
+
+
+    /*
+     * segment a run of ccFind chars starting at offset with the dictionary
+     * pinned in scratch, return the offset after it
+     */
+    int segment(CharSequence sentence, int offset, SegMode mode, TokenBuffer out, Scratch scratch) {
+        if (mode == SegMode.FULL) {
+            return fullWords(sentence, offset, out, scratch);
+        }
+        sentenceProcess(sentence, scratch);
+        final WordDictionary.Snapshot dict = scratch.dict;
+        final boolean wordIds = out.hasWordIds();
+        final int[] wordEnds = scratch.wordEnds;
+        int begin = 0;
+        for (int k = 0; k < scratch.wordCount; ++k) {
+            final int end = wordEnds[k];
+            if (mode == SegMode.INDEX && end - begin > 2) {
+                indexSubWords(sentence, offset, begin, end, out, scratch);
+            }
+            out.add(offset + begin, offset + end, wordIds ? dict.wordId(sentence, begin, end) : -1);
+            begin = end;
+        }
+        return offset + begin;
+    }
+
+
+    /*
+     * the dictionary a call pins, the one of the batch in progress on this thread if any
+     */
+    WordDictionary.Snapshot snapshot() {
+        final Scratch scratch = SCRATCH.get();
+        if (scratch.batchOwner == this) {
+            return scratch.batchDict;
+        }
+        final WordDictionary.Snapshot dict = WORD_DICT.snapshot();
+        return null == overlay ? dict : overlay.over(dict);
+    }
+
+
+    /*
+     * run the calls of batch on this thread as one unit: they all see the
+     * dictionary snapshot pinned here and share the thread's scratch, whose
+     * buffers are trimmed once when the batch ends instead of after each call
+     */
+    void runBatch(Runnable batch) {
+        final Scratch scratch = SCRATCH.get();
+        final JiebaSegmenter outerOwner = scratch.batchOwner;
+        final WordDictionary.Snapshot outerDict = scratch.batchDict;
+        scratch.batchDict = snapshot();
+        scratch.batchOwner = this;
+        try {
+            batch.run();
+        } finally {
+            scratch.batchOwner = outerOwner;
+            scratch.batchDict = outerDict;
+            scratch.release();
+        }
+    }
+
+
+    /*
+     *
+     */
+    public List<String> sentenceProcess(String sentence) {
+        final WordDictionary.Snapshot dict = snapshot();
+        if (null == cache || !cache.accepts(sentence)) {
+            return sentenceProcess(sentence, dict);
+        }
+        String[] words = cache.words(sentence, dict);
+        if (null == words) {
+            words = sentenceProcess(sentence, dict).toArray(new String[0]);
+            cache.putWords(sentence, dict, words);
+        }
+        return new ArrayList<>(Arrays.asList(words));
+    }
+
+
+    private List<String> sentenceProcess(String sentence, WordDictionary.Snapshot dict) {
+        final Scratch scratch = SCRATCH.get();
+        scratch.dict = dict;
+        sentenceProcess(sentence, scratch);
+        List<String> tokens = new ArrayList<>(scratch.wordCount);
+        int begin = 0;
+        for (int k = 0; k < scratch.wordCount; ++k) {
+            final int end = scratch.wordEnds[k];
+            tokens.add(sentence.substring(begin, end));
+            begin = end;
+        }
+        scratch.release();
+        return tokens;
+    }
+
+
+    /*
+     * add every word of the DAG of sentence. a char only starting itself is
+     * added unless a longer word already covered it, as jieba's cut_all does.
+     * a run of letters and digits or a decimal is added whole, as FinalSeg
+     * keeps it, plus the words that start with it and go on past it.
+     */
+    private int fullWords(CharSequence sentence, int offset, TokenBuffer out, Scratch scratch) {
+        final int n = sentence.length();
+        final DAG dag = scratch.dag;
+        dag.build(scratch.dict, sentence);
+        if (SegmenterMetrics.ENABLED) {
+            METRICS.sentence(n, dag.firstEdge(n));
+        }
+        final boolean wordIds = out.hasWordIds();
+        int covered = -1;
+        for (int i = 0; i < n; ++i) {
+            final int first = dag.firstEdge(i);
+            final int last = dag.firstEdge(i + 1);
+            final int token = CharacterUtil.skipTokenEnd(sentence, i, n);
+            if (token > i) {
+                out.add(offset + i, offset + token, wordIds ? scratch.dict.wordId(sentence, i, token) : -1);
+                covered = token - 1;
+                for (int e = first; e < last; ++e) {
+                    final int end = dag.edgeEnd(e) + 1;
+                    if (end > token) {
+                        out.add(offset + i, offset + end, wordIds ? scratch.dict.wordId(sentence, i, end) : -1);
+                        covered = end - 1;
                     }
-                    tokens.add(new SegToken(token, offset, offset += token.length()));
+                }
+                i = token - 1;
+                continue;
+            }
+            if (last - first == 1 && i > covered) {
+                final int end = dag.edgeEnd(first) + 1;
+                out.add(offset + i, offset + end, wordIds ? scratch.dict.wordId(sentence, i, end) : -1);
+                covered = end - 1;
+                continue;
+            }
+            for (int e = first; e < last; ++e) {
+                final int end = dag.edgeEnd(e) + 1;
+                if (end - i > 1) {
+                    out.add(offset + i, offset + end, wordIds ? scratch.dict.wordId(sentence, i, end) : -1);
+                    covered = end - 1;
                 }
             }
+        }
+        return offset + n;
+    }
 
-        return tokens;
+
+    /*
+     * add the dictionary words inside sentence[begin, end) that are shorter
+     * than it, found by one walk of the tries from each start. they are added
+     * by length, then by start.
+     */
+    private void indexSubWords(CharSequence sentence, int offset, int begin, int end, TokenBuffer out, Scratch scratch) {
+        final WordDictionary.Snapshot dict = scratch.dict;
+        final DoubleArrayTrie trie = dict.trie;
+        final int overlays = dict.overlays.length;
+        if (scratch.userStates.length < overlays) {
+            scratch.userStates = new int[overlays];
+        }
+        final int[] userStates = scratch.userStates;
+        final int maxLength = Math.min(maxSubWordLength, end - begin - 1);
+        scratch.subWordCount = 0;
+        for (int i = begin; i < end - 1; ++i) {
+            int state = DoubleArrayTrie.ROOT;
+            Arrays.fill(userStates, 0, overlays, DoubleArrayTrie.ROOT);
+            for (int j = i, last = Math.min(end, i + maxLength); j < last; ++j) {
+                final char ch = sentence.charAt(j);
+                if (state >= 0) {
+                    state = trie.step(state, ch);
+                }
+                final int userId = overlays == 0 ? WordDictionary.Snapshot.DEAD : dict.stepOverlays(userStates, ch);
+                if (state < 0 && userId == WordDictionary.Snapshot.DEAD) {
+                    break;
+                }
+                if (j == i) {
+                    continue;
+                }
+                // a user word overrides the main one, as in the DAG
+                final int wordId = userId >= 0 ? userId : state >= 0 ? trie.wordId(state) : -1;
+                if (wordId >= 0) {
+                    scratch.addSubWord(i, j + 1, wordId);
+                }
+            }
+        }
+        for (int length = 2; length <= maxLength; ++length) {
+            for (int k = 0; k < scratch.subWordCount; ++k) {
+                if (scratch.subEnds[k] - scratch.subStarts[k] == length) {
+                    out.add(offset + scratch.subStarts[k], offset + scratch.subEnds[k], scratch.subIds[k]);
+                }
+            }
+        }
     }
 
 
     /*
-     * 
+     * leave the end offsets of the words of sentence in scratch.wordEnds
      */
-    public List<String> sentenceProcess(String sentence) {
+    private void sentenceProcess(CharSequence sentence, Scratch scratch) {
         final int N = sentence.length();
-        List<String> tokens = new ArrayList<>(N);
-        Map<Integer, List<Integer>> dag = createDAG(sentence);
-        Map<Integer, Pair<Integer>> route = calc(sentence, dag);
+        final DAG dag = scratch.dag;
+        dag.build(scratch.dict, sentence);
+        if (SegmenterMetrics.ENABLED) {
+            METRICS.sentence(N, dag.firstEdge(N));
+        }
+        dag.calc();
+        scratch.wordCount = 0;
 
         int x = 0;
         int y = 0;
-        String buf;
-        StringBuilder sb = new StringBuilder();
+        int singles = 0;
         while (x < N) {
-            y = route.get(x).key + 1;
-            String lWord = sentence.substring(x, y);
-            if (y - x == 1) {
-                sb.append(lWord);
-            } else {
-                if (sb.length() > 0) {
-                    buf = sb.toString();
-                    sb = new StringBuilder();
-                    if (buf.length() == 1) {
-                        tokens.add(buf);
-                    } else {
-                        if (WORD_DICT.containsWord(buf)) {
-                            tokens.add(buf);
-                        } else {
-                            VITERBI_SEGMENT.cut(buf, tokens);
-                        }
-                    }
-                }
-                tokens.add(lWord);
+            y = dag.route(x) + 1;
+            if (y - x > 1) {
+                flushSingles(sentence, singles, x, scratch);
+                scratch.accept(y);
+                singles = y;
             }
             x = y;
         }
-        buf = sb.toString();
-        if (buf.length() > 0) {
-            if (buf.length() == 1) {
-                tokens.add(buf);
-            } else {
-                if (WORD_DICT.containsWord(buf)) {
-                    tokens.add(buf);
-                } else {
-                    VITERBI_SEGMENT.cut(buf, tokens);
-                }
+        flushSingles(sentence, singles, N, scratch);
+    }
+
+
+    /*
+     * consecutive single chars are kept as one word if the dictionary knows
+     * it, otherwise they are left to the HMM
+     */
+    private void flushSingles(CharSequence sentence, int begin, int end, Scratch scratch) {
+        if (end - begin == 1 || end - begin > 1 && scratch.dict.containsWord(sentence, begin, end)) {
+            scratch.accept(end);
+        } else if (end > begin) {
+            if (SegmenterMetrics.ENABLED) {
+                METRICS.hmm(end - begin);
             }
+            VITERBI_SEGMENT.cut(sentence, begin, end, scratch);
+        }
+    }
+
 
+    /*
+     * per thread buffers, it also collects the word ends of a sentence
+     */
+    static final class Scratch implements IntConsumer {
+
+        // longer buffers are dropped after use instead of being kept by the thread
+        private static final int MAX_RETAINED_CHARS = 1 << 16;
+
+        final DAG dag = new DAG();
+        // the dictionary of the call in progress, one call never sees a reload
+        WordDictionary.Snapshot dict;
+        final TokenBuffer tokens = new TokenBuffer();
+        final Utf8Text utf8 = new Utf8Text();
+        StringBuilder sentence = new StringBuilder();
+        int[] wordEnds = new int[64];
+        int wordCount;
+        // INDEX sub-words of the current word
+        int[] subStarts = new int[16];
+        int[] subEnds = new int[16];
+        int[] subIds = new int[16];
+        int subWordCount;
+        // walk states of the user tries
+        int[] userStates = new int[4];
+        // the segmenter running a batch on this thread and the snapshot it pinned
+        JiebaSegmenter batchOwner;
+        WordDictionary.Snapshot batchDict;
+
+        @Override
+        public void accept(int end) {
+            if (wordCount == wordEnds.length) {
+                wordEnds = Arrays.copyOf(wordEnds, wordCount << 1);
+            }
+            wordEnds[wordCount++] = end;
+        }
+
+        void addSubWord(int start, int end, int wordId) {
+            if (subWordCount == subStarts.length) {
+                subStarts = Arrays.copyOf(subStarts, subWordCount << 1);
+                subEnds = Arrays.copyOf(subEnds, subWordCount << 1);
+                subIds = Arrays.copyOf(subIds, subWordCount << 1);
+            }
+            subStarts[subWordCount] = start;
+            subEnds[subWordCount] = end;
+            subIds[subWordCount] = wordId;
+            ++subWordCount;
+        }
+
+        void release() {
+            dict = null;
+            if (null != batchOwner) {
+                // a batch keeps its buffers until it ends
+                tokens.clear();
+                wordCount = 0;
+                subWordCount = 0;
+                return;
+            }
+            dag.release();
+            tokens.release();
+            utf8.release();
+            wordCount = 0;
+            if (sentence.capacity() > MAX_RETAINED_CHARS) {
+                sentence = new StringBuilder();
+            }
+            if (wordEnds.length > MAX_RETAINED_CHARS) {
+                wordEnds = new int[64];
+            }
+            subWordCount = 0;
+            if (subStarts.length > MAX_RETAINED_CHARS) {
+                subStarts = new int[16];
+                subEnds = new int[16];
+                subIds = new int[16];
+            }
         }
-        return tokens;
     }
 }
@@ -0,0 +1,136 @@
+package com.huaban.analysis.jieba;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+
+/**
+ * the user words of one tenant, layered over the main trie of the shared
+ * {@link WordDictionary} by {@link JiebaSegmenter#JiebaSegmenter(OverlayDictionary)}.
+ * <p>
+ * lookups check the overlay first, then the user dicts loaded into the
+ * shared {@link WordDictionary}, then its main trie. the main trie, the user
+ * tries and their frequencies exist once however many overlays are in use,
+ * each overlay only costs its own small trie.
+ * <p>
+ * an overlay is immutable, build a new one to change the words of a tenant.
+ */
+public final class OverlayDictionary {
+
+    private static final Logger LOGGER = Logger.getLogger(OverlayDictionary.class.getName());
+
+    // null without words
+    private final DoubleArrayTrie trie;
+    private final int size;
+
+    // the last layered snapshot, reused while the shared dictionary stays the same
+    private volatile Layered layered;
+
+    private OverlayDictionary(final DoubleArrayTrie trie, final int size) {
+        this.trie = trie;
+        this.size = size;
+    }
+
+    /**
+     * read UTF-8 user dict files, a word of a later file overrides the same
+     * word of an earlier one
+     *
+     * @param userDicts
+     * @return OverlayDictionary
+     * @throws IOException
+     */
+    public static OverlayDictionary load(final Path... userDicts) throws IOException {
+        final long s = System.currentTimeMillis();
+        final double total = WordDictionary.getInstance().snapshot().total;
+        final Map<String, Double> words = new HashMap<>();
+        for (Path userDict : userDicts) {
+            WordDictionary.readWords(userDict, StandardCharsets.UTF_8, total, words);
+        }
+        final OverlayDictionary overlay = build(words);
+        LOGGER.info(String.format(Locale.getDefault(), "overlay dict load finished, tot words:%d, time elapsed:%dms",
+                overlay.size, System.currentTimeMillis() - s));
+        return overlay;
+    }
+
+    /**
+     * @param wordFreqs word to frequency, counted like the frequencies of user dict files
+     * @return OverlayDictionary
+     */
+    public static OverlayDictionary of(final Map<String, ? extends Number> wordFreqs) {
+        final double total = WordDictionary.getInstance().snapshot().total;
+        final Map<String, Double> words = new HashMap<>();
+        for (Entry<String, ? extends Number> entry : wordFreqs.entrySet()) {
+            final String word = WordDictionary.normalizeWord(entry.getKey());
+            if (null != word) {
+                words.put(word, Math.log(entry.getValue().doubleValue() / total));
+            }
+        }
+        return build(words);
+    }
+
+    private static OverlayDictionary build(final Map<String, Double> words) {
+        if (words.isEmpty()) {
+            return new OverlayDictionary(null, 0);
+        }
+        final String[] sorted = words.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        final double[] freqs = new double[sorted.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            freqs[i] = words.get(sorted[i]);
+        }
+        return new OverlayDictionary(DoubleArrayTrie.build(sorted, freqs), sorted.length);
+    }
+
+    /**
+     * @return the count of words of the overlay
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param word
+     * @return whether the overlay itself has word
+     */
+    public boolean containsWord(final String word) {
+        return null != trie && trie.wordId(word) >= 0;
+    }
+
+    /*
+     * the overlay on top of the user tries and the main trie of base
+     */
+    WordDictionary.Snapshot over(final WordDictionary.Snapshot base) {
+        final Layered last = layered;
+        if (null != last && last.base == base) {
+            return last.snapshot;
+        }
+        DoubleArrayTrie[] overlays = base.overlays;
+        if (null != trie) {
+            overlays = new DoubleArrayTrie[base.overlays.length + 1];
+            overlays[0] = trie;
+            System.arraycopy(base.overlays, 0, overlays, 1, base.overlays.length);
+        }
+        final WordDictionary.Snapshot snapshot = new WordDictionary.Snapshot(base.trie, overlays, base.total, base.minFreq);
+        layered = new Layered(base, snapshot);
+        return snapshot;
+    }
+
+
+    private static final class Layered {
+
+        final WordDictionary.Snapshot base;
+        final WordDictionary.Snapshot snapshot;
+
+        Layered(final WordDictionary.Snapshot base, final WordDictionary.Snapshot snapshot) {
+            this.base = base;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.huaban.analysis.jieba;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * bounded LRU cache of segmentation results for short, often repeated text
+ * such as queries, used by
+ * {@link JiebaSegmenter#JiebaSegmenter(OverlayDictionary, SegmentCache)} for
+ * {@link JiebaSegmenter.SegMode#SEARCH} tokens and sentenceProcess words.
+ * <p>
+ * the cache is split into independently locked stripes, each evicting its
+ * least recently used entries beyond its share of the weight. the weight of
+ * an entry is the length of its text plus the count of its cached tokens and
+ * words. results are immutable and tied to the dictionary snapshot they were
+ * segmented with: a stripe that sees a newer snapshot drops its entries, so
+ * a reloaded dictionary never serves stale results.
+ * <p>
+ * a cache belongs to one segmenter, segmenters on different dictionaries
+ * would keep invalidating each other.
+ */
+public final class SegmentCache {
+
+    private static final int DEFAULT_MAX_TEXT_LENGTH = 128;
+    private static final int MAX_STRIPES = 64;
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final int maxTextLength;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight total weight kept at most, roughly the cached chars
+     */
+    public SegmentCache(long maxWeight) {
+        this(maxWeight, DEFAULT_MAX_TEXT_LENGTH);
+    }
+
+    /**
+     * @param maxWeight     total weight kept at most, roughly the cached chars
+     * @param maxTextLength longer text is segmented without the cache
+     */
+    public SegmentCache(long maxWeight, int maxTextLength) {
+        if (maxWeight < 1 || maxTextLength < 1) {
+            throw new IllegalArgumentException(String.format(Locale.getDefault(),
+                    "maxWeight %d and maxTextLength %d must be positive", maxWeight, maxTextLength));
+        }
+        // a power of two about 4 times the processors, every stripe holds a few entries at least
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+        while (count > 1 && (count > MAX_STRIPES || maxWeight / count < maxTextLength * 4L)) {
+            count >>= 1;
+        }
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; ++i) {
+            stripes[i] = new Stripe(maxWeight / count + (i < maxWeight % count ? 1 : 0));
+        }
+        this.mask = count - 1;
+        this.maxTextLength = maxTextLength;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return entries dropped to stay within the weight, not counting the ones
+     * dropped for a dictionary change
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        final long h = hits.sum();
+        final long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * @return cached texts
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                weight += stripe.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * drop every entry, the statistics are kept
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.entries.clear();
+                stripe.weight = 0;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "SegmentCache[size:%d, weight:%d, hits:%d, misses:%d, evictions:%d]",
+                size(), weight(), hits(), misses(), evictions());
+    }
+
+    boolean accepts(final String text) {
+        return text.length() <= maxTextLength;
+    }
+
+    SegToken[] tokens(final String text, final WordDictionary.Snapshot dict) {
+        final Entry entry = stripe(text).get(text, dict);
+        return count(null == entry ? null : entry.tokens);
+    }
+
+    String[] words(final String text, final WordDictionary.Snapshot dict) {
+        final Entry entry = stripe(text).get(text, dict);
+        return count(null == entry ? null : entry.words);
+    }
+
+    void putTokens(final String text, final WordDictionary.Snapshot dict, final SegToken[] tokens) {
+        stripe(text).put(text, dict, tokens, null);
+    }
+
+    void putWords(final String text, final WordDictionary.Snapshot dict, final String[] words) {
+        stripe(text).put(text, dict, null, words);
+    }
+
+    private <T> T count(final T result) {
+        if (null == result) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    private Stripe stripe(final String text) {
+        final int h = text.hashCode();
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+
+    private static final class Entry {
+
+        // either may be null until that kind of result is cached
+        SegToken[] tokens;
+        String[] words;
+        int weight;
+    }
+
+
+    private final class Stripe {
+
+        private final long maxWeight;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+        // the snapshot every entry was segmented with
+        private WordDictionary.Snapshot dict;
+
+        Stripe(final long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized Entry get(final String text, final WordDictionary.Snapshot dict) {
+            if (dict != this.dict) {
+                return null;
+            }
+            return entries.get(text);
+        }
+
+        synchronized void put(final String text, final WordDictionary.Snapshot dict, final SegToken[] tokens, final String[] words) {
+            if (dict != this.dict) {
+                // results of another snapshot must not be served any more
+                entries.clear();
+                weight = 0;
+                this.dict = dict;
+            }
+            Entry entry = entries.get(text);
+            if (null == entry) {
+                entry = new Entry();
+                entry.weight = text.length();
+                entries.put(text, entry);
+                weight += entry.weight;
+            }
+            if (null != tokens && null == entry.tokens) {
+                entry.tokens = tokens;
+                entry.weight += tokens.length;
+                weight += tokens.length;
+            }
+            if (null != words && null == entry.words) {
+                entry.words = words;
+                entry.weight += words.length;
+                weight += words.length;
+            }
+            final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            // the entry just used is the most recent one, it is kept even if it alone is too heavy
+            while (weight > maxWeight && entries.size() > 1) {
+                final Entry eldest = it.next().getValue();
+                it.remove();
+                weight -= eldest.weight;
+                evictions.increment();
+            }
+        }
+    }
+}
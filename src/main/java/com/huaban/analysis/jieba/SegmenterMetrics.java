@@ -0,0 +1,308 @@
+package com.huaban.analysis.jieba;
+
+import com.huaban.analysis.jieba.JiebaSegmenter.SegMode;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * counters of the segmentation work, off unless the JVM runs with
+ * -D{@value #ENABLED_PROPERTY}=true. the switch is a static final, so a
+ * disabled check is folded away by the JIT and costs nothing.
+ * <p>
+ * counters are {@link LongAdder}s. one process call in
+ * {@value #SAMPLE_RATE} is timed into a per mode histogram with 4 buckets per
+ * power of two nanoseconds. read them with {@link #snapshot()} or over JMX as
+ * {@value #OBJECT_NAME}. the slices of a parallel process call count as
+ * documents of their own.
+ * <p>
+ * dictionary and model load times are recorded whether enabled or not.
+ */
+public final class SegmenterMetrics implements SegmenterMetricsMBean {
+
+    private static final Logger LOGGER = Logger.getLogger(SegmenterMetrics.class.getName());
+
+    public static final String ENABLED_PROPERTY = "jieba.metrics";
+    public static final String OBJECT_NAME = "com.huaban.analysis.jieba:type=SegmenterMetrics";
+
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    // a power of two
+    private static final int SAMPLE_RATE = 16;
+
+    private static final SegmenterMetrics INSTANCE = new SegmenterMetrics();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, String.format(Locale.getDefault(), "%s register failure", OBJECT_NAME), e);
+            }
+        }
+    }
+
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder chars = new LongAdder();
+    private final LongAdder sentences = new LongAdder();
+    private final LongAdder dagChars = new LongAdder();
+    private final LongAdder dagEdges = new LongAdder();
+    private final LongAdder hmmCalls = new LongAdder();
+    private final LongAdder hmmChars = new LongAdder();
+    private final Histogram[] latencies = new Histogram[SegMode.values().length];
+
+    private volatile long dictLoadMillis;
+    private volatile long modelLoadMillis;
+    private volatile long modelBytes;
+
+    // the shared instance is getInstance(), tests count into their own
+    SegmenterMetrics() {
+        for (int i = 0; i < latencies.length; ++i) {
+            latencies[i] = new Histogram();
+        }
+    }
+
+    public static SegmenterMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return every metric by name, read at once
+     */
+    public Map<String, Object> snapshot() {
+        final Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", ENABLED);
+        snapshot.put("documents", getDocuments());
+        snapshot.put("chars", getChars());
+        snapshot.put("sentences", getSentences());
+        snapshot.put("dagEdgesPerChar", getDagEdgesPerChar());
+        snapshot.put("hmmCalls", getHmmCalls());
+        snapshot.put("hmmChars", getHmmChars());
+        snapshot.put("outOfVocabularyRate", getOutOfVocabularyRate());
+        for (SegMode mode : SegMode.values()) {
+            final String name = mode.name().toLowerCase(Locale.ROOT);
+            snapshot.put(name + ".samples", latencies[mode.ordinal()].count());
+            snapshot.put(name + ".p50Micros", latencyMicros(mode.name(), 0.50));
+            snapshot.put(name + ".p90Micros", latencyMicros(mode.name(), 0.90));
+            snapshot.put(name + ".p99Micros", latencyMicros(mode.name(), 0.99));
+        }
+        snapshot.put("dictLoadMillis", getDictLoadMillis());
+        snapshot.put("dictBytes", getDictBytes());
+        snapshot.put("modelLoadMillis", getModelLoadMillis());
+        snapshot.put("modelBytes", getModelBytes());
+        return snapshot;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public long getDocuments() {
+        return documents.sum();
+    }
+
+    @Override
+    public long getChars() {
+        return chars.sum();
+    }
+
+    @Override
+    public long getSentences() {
+        return sentences.sum();
+    }
+
+    @Override
+    public double getDagEdgesPerChar() {
+        final long n = dagChars.sum();
+        return n == 0 ? 0.0 : (double) dagEdges.sum() / n;
+    }
+
+    @Override
+    public long getHmmCalls() {
+        return hmmCalls.sum();
+    }
+
+    @Override
+    public long getHmmChars() {
+        return hmmChars.sum();
+    }
+
+    /**
+     * @return the share of the sentence chars left to the HMM
+     */
+    @Override
+    public double getOutOfVocabularyRate() {
+        final long n = dagChars.sum();
+        return n == 0 ? 0.0 : (double) hmmChars.sum() / n;
+    }
+
+    @Override
+    public long getDictLoadMillis() {
+        return dictLoadMillis;
+    }
+
+    /**
+     * @return bytes of the current dictionary tries, on the heap unless memory mapped
+     */
+    @Override
+    public long getDictBytes() {
+        return WordDictionary.getInstance().snapshot().byteSize();
+    }
+
+    @Override
+    public long getModelLoadMillis() {
+        return modelLoadMillis;
+    }
+
+    @Override
+    public long getModelBytes() {
+        return modelBytes;
+    }
+
+    @Override
+    public double latencyMicros(final String mode, final double quantile) {
+        return latencies[SegMode.valueOf(mode.toUpperCase(Locale.ROOT)).ordinal()].quantile(quantile) / 1e3;
+    }
+
+    /**
+     * zero the counters and histograms, load times are kept
+     */
+    @Override
+    public void reset() {
+        documents.reset();
+        chars.reset();
+        sentences.reset();
+        dagChars.reset();
+        dagEdges.reset();
+        hmmCalls.reset();
+        hmmChars.reset();
+        for (Histogram histogram : latencies) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @param millis
+     * @param bytes  heap bytes of the model tables
+     */
+    void modelLoaded(final long millis, final long bytes) {
+        modelLoadMillis = millis;
+        modelBytes = bytes;
+    }
+
+    void dictLoaded(final long millis) {
+        dictLoadMillis = millis;
+    }
+
+    /*
+     * nanoTime to time this call with, 0 when it is not sampled
+     */
+    static long start() {
+        return (ThreadLocalRandom.current().nextInt() & (SAMPLE_RATE - 1)) == 0 ? System.nanoTime() : 0L;
+    }
+
+    void document(final SegMode mode, final int length, final long start) {
+        documents.increment();
+        chars.add(length);
+        if (start != 0L) {
+            latencies[mode.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    void sentence(final int length, final int edges) {
+        sentences.increment();
+        dagChars.add(length);
+        dagEdges.add(edges);
+    }
+
+    void hmm(final int length) {
+        hmmCalls.increment();
+        hmmChars.add(length);
+    }
+
+
+    /*
+     * log linear histogram: 4 buckets per power of two
+     */
+    static final class Histogram {
+
+        private static final int SUB_BITS = 2;
+
+        private final LongAdder[] buckets = new LongAdder[64 << SUB_BITS];
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; ++i) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(final long nanos) {
+            buckets[bucket(Math.max(1L, nanos))].increment();
+        }
+
+        long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        // the lower bound of the bucket the quantile falls into
+        double quantile(final double quantile) {
+            final long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0.0;
+            }
+            final long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return lowerBound(i);
+                }
+            }
+            return lowerBound(counts.length - 1);
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+
+        private static int bucket(final long value) {
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent < SUB_BITS) {
+                return (int) value;
+            }
+            final int sub = (int) (value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+            return (exponent << SUB_BITS) | sub;
+        }
+
+        private static double lowerBound(final int bucket) {
+            final int exponent = bucket >>> SUB_BITS;
+            if (exponent < SUB_BITS) {
+                return bucket;
+            }
+            final int sub = bucket & ((1 << SUB_BITS) - 1);
+            return (double) ((1L << exponent) + ((long) sub << (exponent - SUB_BITS)));
+        }
+    }
+}
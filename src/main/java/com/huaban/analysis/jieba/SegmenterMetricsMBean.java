@@ -0,0 +1,42 @@
+package com.huaban.analysis.jieba;
+
+
+/**
+ * JMX view of {@link SegmenterMetrics}, registered as
+ * {@value SegmenterMetrics#OBJECT_NAME}
+ */
+public interface SegmenterMetricsMBean {
+
+    boolean isEnabled();
+
+    long getDocuments();
+
+    long getChars();
+
+    long getSentences();
+
+    double getDagEdgesPerChar();
+
+    long getHmmCalls();
+
+    long getHmmChars();
+
+    double getOutOfVocabularyRate();
+
+    long getDictLoadMillis();
+
+    long getDictBytes();
+
+    long getModelLoadMillis();
+
+    long getModelBytes();
+
+    /**
+     * @param mode     SEARCH, INDEX or FULL
+     * @param quantile between 0 and 1
+     * @return the sampled latency of process calls in the mode, in microseconds
+     */
+    double latencyMicros(String mode, double quantile);
+
+    void reset();
+}
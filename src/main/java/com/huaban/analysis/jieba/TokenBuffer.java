@@ -0,0 +1,214 @@
+package com.huaban.analysis.jieba;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+
+/**
+ * caller owned, reusable output of
+ * {@link JiebaSegmenter#process(String, JiebaSegmenter.SegMode, TokenBuffer)}:
+ * tokens are kept as parallel start, end and optionally word id columns, no
+ * object is created per token.
+ * <p>
+ * offsets are char offsets into {@link #source()}, or byte offsets into
+ * {@link #byteSource()} for tokens segmented from UTF-8 bytes.
+ * <p>
+ * word ids are the ids of the dictionary trie the tokens were segmented with,
+ * -1 for tokens the dictionary does not know. they change when the dictionary
+ * is reloaded or extended. a buffer is not thread safe.
+ */
+public final class TokenBuffer {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // longer columns are dropped by release()
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+    private final boolean trackWordIds;
+
+    private CharSequence source;
+    private ByteBuffer byteSource;
+    private int size;
+
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int[] wordIds;
+
+    public TokenBuffer() {
+        this(false);
+    }
+
+    /**
+     * @param trackWordIds also fill the word id column
+     */
+    public TokenBuffer(final boolean trackWordIds) {
+        this.trackWordIds = trackWordIds;
+        if (trackWordIds) {
+            wordIds = new int[INITIAL_CAPACITY];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int start(final int i) {
+        checkIndex(i);
+        return starts[i];
+    }
+
+    public int end(final int i) {
+        checkIndex(i);
+        return ends[i];
+    }
+
+    public boolean hasWordIds() {
+        return trackWordIds;
+    }
+
+    /**
+     * @param i
+     * @return the word id of token i, -1 if the dictionary does not know it
+     * @throws IllegalStateException if the buffer does not track word ids
+     */
+    public int wordId(final int i) {
+        if (!trackWordIds) {
+            throw new IllegalStateException("word ids are not tracked by this buffer");
+        }
+        checkIndex(i);
+        return wordIds[i];
+    }
+
+    /**
+     * the text the tokens were segmented from, null for UTF-8 input
+     */
+    public CharSequence source() {
+        return source;
+    }
+
+    /**
+     * the UTF-8 bytes the tokens were segmented from, null for text input
+     */
+    public ByteBuffer byteSource() {
+        return byteSource;
+    }
+
+    /**
+     * materialize token i the way {@link SegToken#getWord()} reports it:
+     * full width and upper case chars of words are normalized, other chars
+     * are kept as they are in the source
+     *
+     * @param i
+     * @return String
+     */
+    public String word(final int i) {
+        checkIndex(i);
+        final int start = starts[i];
+        final int end = ends[i];
+        if (null != byteSource) {
+            final byte[] bytes = new byte[end - start];
+            for (int k = start; k < end; ++k) {
+                bytes[k - start] = byteSource.get(k);
+            }
+            final char[] chars = new String(bytes, StandardCharsets.UTF_8).toCharArray();
+            for (int k = 0; k < chars.length; ++k) {
+                chars[k] = normalized(chars[k]);
+            }
+            return new String(chars);
+        }
+        int k = start;
+        while (k < end && normalized(source.charAt(k)) == source.charAt(k)) {
+            ++k;
+        }
+        if (k == end) {
+            return source.subSequence(start, end).toString();
+        }
+        final char[] chars = new char[end - start];
+        for (k = start; k < end; ++k) {
+            chars[k - start] = normalized(source.charAt(k));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * forget the tokens, the columns are kept for the next use
+     */
+    public void clear() {
+        size = 0;
+        source = null;
+        byteSource = null;
+    }
+
+    /**
+     * drop columns grown beyond the retained capacity
+     */
+    public void release() {
+        clear();
+        if (starts.length > MAX_RETAINED_CAPACITY) {
+            starts = new int[INITIAL_CAPACITY];
+            ends = new int[INITIAL_CAPACITY];
+            if (trackWordIds) {
+                wordIds = new int[INITIAL_CAPACITY];
+            }
+        }
+    }
+
+    void reset(final CharSequence source) {
+        this.size = 0;
+        this.source = source;
+        this.byteSource = null;
+    }
+
+    /*
+     * turn the char offsets into offsets of the bytes text was decoded from,
+     * tokens left empty (the low half of a surrogate pair) are dropped
+     */
+    void toByteOffsets(final Utf8Text text, final ByteBuffer bytes) {
+        int n = 0;
+        for (int i = 0; i < size; ++i) {
+            final int start = text.byteOffset(starts[i]);
+            final int end = text.byteOffset(ends[i]);
+            if (start < end) {
+                starts[n] = start;
+                ends[n] = end;
+                if (trackWordIds) {
+                    wordIds[n] = wordIds[i];
+                }
+                ++n;
+            }
+        }
+        size = n;
+        source = null;
+        byteSource = bytes;
+    }
+
+    void add(final int start, final int end, final int wordId) {
+        if (size == starts.length) {
+            final int capacity = size << 1;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            if (trackWordIds) {
+                wordIds = Arrays.copyOf(wordIds, capacity);
+            }
+        }
+        starts[size] = start;
+        ends[size] = end;
+        if (trackWordIds) {
+            wordIds[size] = wordId;
+        }
+        ++size;
+    }
+
+    private void checkIndex(final int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException(String.format(Locale.getDefault(), "index %d, size %d", i, size));
+        }
+    }
+
+    private static char normalized(final char raw) {
+        final int entry = CharacterUtil.lookup(raw);
+        return (entry & CharacterUtil.NORMALIZED_CC) != 0 ? (char) entry : raw;
+    }
+}
@@ -0,0 +1,146 @@
+package com.huaban.analysis.jieba;
+
+import com.huaban.analysis.jieba.JiebaSegmenter.SegMode;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+/**
+ * tokens of a Reader or CharSequence, segmented one sentence at a time as
+ * they are pulled, with the same tokens and offsets as
+ * {@link JiebaSegmenter#process(String, SegMode)} gives for the whole text.
+ * <p>
+ * a stream keeps its own buffers, it is not thread safe. read failures are
+ * rethrown as {@link UncheckedIOException}.
+ */
+public final class TokenStream implements Iterator<SegToken> {
+
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private final JiebaSegmenter segmenter;
+    private final SegMode mode;
+    private final JiebaSegmenter.Scratch scratch = new JiebaSegmenter.Scratch();
+
+    // exactly one of them is set
+    private final Reader reader;
+    private final CharSequence text;
+
+    private final char[] buffer;
+    private int position;
+    private int limit;
+
+    // chars consumed so far
+    private int offset;
+    private boolean eof;
+
+    private final List<SegToken> pending = new ArrayList<>();
+    private int next;
+
+    TokenStream(final JiebaSegmenter segmenter, final Reader reader, final SegMode mode) {
+        this.segmenter = segmenter;
+        this.reader = reader;
+        this.text = null;
+        this.mode = mode;
+        this.buffer = new char[READ_BUFFER_SIZE];
+    }
+
+    TokenStream(final JiebaSegmenter segmenter, final CharSequence text, final SegMode mode) {
+        this.segmenter = segmenter;
+        this.reader = null;
+        this.text = text;
+        this.buffer = null;
+        this.mode = mode;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == pending.size()) {
+            if (eof) {
+                return false;
+            }
+            fill();
+        }
+        return true;
+    }
+
+    @Override
+    public SegToken next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return pending.get(next++);
+    }
+
+    /*
+     * segment up to and including the next char outside of ccFind, or to the
+     * end of the input
+     */
+    private void fill() {
+        pending.clear();
+        next = 0;
+        // pinned per sentence, so a long stream picks up dictionary reloads
+        scratch.dict = segmenter.snapshot();
+        final StringBuilder sb = scratch.sentence;
+        sb.setLength(0);
+        int raw;
+        while ((raw = read()) >= 0) {
+            final int entry = CharacterUtil.lookup((char) raw);
+            if ((entry & CharacterUtil.NORMALIZED_CC) != 0) {
+                sb.append((char) entry);
+                ++offset;
+            } else {
+                if (sb.length() > 0) {
+                    addSentence(sb);
+                }
+                pending.add(new SegToken(String.valueOf((char) raw), offset, ++offset));
+                scratch.release();
+                return;
+            }
+        }
+        eof = true;
+        if (sb.length() > 0) {
+            addSentence(sb);
+        }
+        scratch.release();
+    }
+
+    private void addSentence(final StringBuilder sentence) {
+        final int sentenceOffset = offset - sentence.length();
+        final TokenBuffer tokens = scratch.tokens;
+        tokens.reset(sentence);
+        segmenter.segment(sentence, sentenceOffset, mode, tokens, scratch);
+        for (int i = 0; i < tokens.size(); ++i) {
+            final int start = tokens.start(i);
+            final int end = tokens.end(i);
+            pending.add(new SegToken(sentence.substring(start - sentenceOffset, end - sentenceOffset), start, end));
+        }
+    }
+
+    private int read() {
+        if (null != text) {
+            return offset < text.length() ? text.charAt(offset) : -1;
+        }
+        if (position == limit) {
+            try {
+                int n;
+                do {
+                    n = reader.read(buffer, 0, buffer.length);
+                } while (n == 0);
+                if (n < 0) {
+                    return -1;
+                }
+                position = 0;
+                limit = n;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return buffer[position++];
+    }
+}
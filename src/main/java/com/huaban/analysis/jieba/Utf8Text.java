@@ -0,0 +1,153 @@
+package com.huaban.analysis.jieba;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+
+/**
+ * UTF-8 bytes decoded into a reusable char buffer, remembering the byte offset
+ * every char starts at so char offsets can be mapped back to bytes.
+ * <p>
+ * a supplementary code point decodes into a surrogate pair, its low surrogate
+ * is mapped to the end of the code point. malformed bytes decode one by one
+ * into U+FFFD.
+ */
+final class Utf8Text implements CharSequence {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // longer buffers are dropped by release()
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private char[] chars = new char[INITIAL_CAPACITY];
+    // byte offset of each char, plus the end of the input
+    private int[] offsets = new int[INITIAL_CAPACITY + 1];
+    private int length;
+
+    /**
+     * decode the remaining bytes of src, its position is not changed
+     *
+     * @param src
+     */
+    void decode(final ByteBuffer src) {
+        final int limit = src.limit();
+        ensureCapacity(src.remaining());
+        length = 0;
+        int i = src.position();
+        while (i < limit) {
+            final int b = src.get(i);
+            if (b >= 0) {
+                append((char) b, i);
+                ++i;
+                continue;
+            }
+            final int n;
+            int cp;
+            if ((b & 0xe0) == 0xc0) {
+                n = 2;
+                cp = b & 0x1f;
+            } else if ((b & 0xf0) == 0xe0) {
+                n = 3;
+                cp = b & 0x0f;
+            } else if ((b & 0xf8) == 0xf0) {
+                n = 4;
+                cp = b & 0x07;
+            } else {
+                append(REPLACEMENT, i);
+                ++i;
+                continue;
+            }
+            int k = 1;
+            for (; k < n && i + k < limit; ++k) {
+                final int c = src.get(i + k);
+                if ((c & 0xc0) != 0x80) {
+                    break;
+                }
+                cp = (cp << 6) | (c & 0x3f);
+            }
+            if (k < n || !valid(cp, n)) {
+                append(REPLACEMENT, i);
+                ++i;
+            } else if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                append(Character.highSurrogate(cp), i);
+                append(Character.lowSurrogate(cp), i + n);
+                i += n;
+            } else {
+                append((char) cp, i);
+                i += n;
+            }
+        }
+        offsets[length] = limit;
+    }
+
+    /**
+     * @param index char offset, up to and including length()
+     * @return the absolute index of the byte the char starts at
+     */
+    int byteOffset(final int index) {
+        return offsets[index];
+    }
+
+    void release() {
+        length = 0;
+        if (chars.length > MAX_RETAINED_CAPACITY) {
+            chars = new char[INITIAL_CAPACITY];
+            offsets = new int[INITIAL_CAPACITY + 1];
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException(String.format(Locale.getDefault(), "[%d, %d), length %d", start, end, length));
+        }
+        return new String(chars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    private void append(final char ch, final int offset) {
+        chars[length] = ch;
+        offsets[length] = offset;
+        ++length;
+    }
+
+    // reject overlong forms, surrogates and code points beyond U+10FFFF
+    private static boolean valid(final int cp, final int n) {
+        switch (n) {
+            case 2:
+                return cp >= 0x80;
+            case 3:
+                return cp >= 0x800 && (cp < Character.MIN_SURROGATE || cp > Character.MAX_SURROGATE);
+            default:
+                return cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT && cp <= Character.MAX_CODE_POINT;
+        }
+    }
+
+    // the input never decodes into more chars than it has bytes
+    private void ensureCapacity(final int bytes) {
+        if (bytes > chars.length) {
+            final int capacity = Math.max(bytes, chars.length << 1);
+            chars = new char[capacity];
+            offsets = new int[capacity + 1];
+        }
+    }
+}
@@ -13,27 +13,50 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 
 public class WordDictionary {
 
     private static final Logger LOGGER = Logger.getLogger(WordDictionary.class.getName());
 
-    private static WordDictionary INSTANCE = new WordDictionary();
     private static final String MAIN_DICT = "/dict.txt";
     private static String USER_DICT_SUFFIX = ".dict";
+    // String.split would compile the pattern again for every line
+    private static final Pattern FIELDS = Pattern.compile("[\t ]+");
 
-    public final Map<String, Double> freqs = new HashMap<>();
-    private Double minFreq = Double.MAX_VALUE;
-    private Double total = 0.0;
-    private DictSegment _dict;
+    // replaced as a whole under the class lock, read without locking
+    private volatile Snapshot _dict = new Snapshot(DoubleArrayTrie.build(new DictSegment((char) 0)), null, 0.0, Double.MAX_VALUE);
+
+    // the rest is guarded by the class lock
+    private final Set<String> loadedPath = new HashSet<>();
+    // user dict files in load order, a later file overrides an earlier one
+    private final Map<Path, UserDict> userDicts = new LinkedHashMap<>();
 
     private WordDictionary() {
-        this.loadDict();
+        this(true);
+    }
+
+    /**
+     * a dictionary of its own instead of the shared one, for tools that
+     * load it in a particular way
+     *
+     * @param load false to start empty and leave loading to the caller
+     */
+    WordDictionary(final boolean load) {
+        if (load && !this.loadSnapshot()) {
+            this.loadDict();
+        }
     }
 
     public static WordDictionary getInstance() {
-        return INSTANCE;
+        return Holder.INSTANCE;
+    }
+
+    // loaded on first use, not when a tool merely builds a dictionary of its own
+    private static final class Holder {
+
+        static final WordDictionary INSTANCE = new WordDictionary();
     }
 
 
@@ -44,7 +67,6 @@ public class WordDictionary {
      */
     public void init(final Path configFile) {
         final String configPath = configFile.toAbsolutePath().toString();
-        final Set<String> loadedPath = new HashSet<>();
         LOGGER.info("initialize user dictionary:" + configPath);
         synchronized (WordDictionary.class) {
             if (loadedPath.contains(configPath)) {
@@ -54,25 +76,70 @@ public class WordDictionary {
             try (DirectoryStream<Path> stream = Files.newDirectoryStream(configFile, String.format(Locale.getDefault(), "*%s", USER_DICT_SUFFIX))) {
                 for (Path path : stream) {
                     LOGGER.info(String.format(Locale.getDefault(), "loading dict %s", path.toString()));
-                    INSTANCE.loadUserDict(path);
+                    readUserDict(path, StandardCharsets.UTF_8);
                 }
                 loadedPath.add(configPath);
             } catch (IOException e) {
                 LOGGER.log(Level.SEVERE, String.format(Locale.getDefault(), "%s: load user dict failure!", configFile.toString()));
             }
+            applyUserDicts();
+        }
+    }
+
+    /**
+     * watch a user dictionary directory and apply every change of its
+     * {@code .dict} files, loading the ones already there first.
+     * segmentation goes on during a reload and sees the change once it is
+     * published.
+     *
+     * @param configDir
+     * @return the watcher, close it to stop watching
+     * @throws IOException if the directory can not be watched
+     */
+    public DictWatcher watch(final Path configDir) throws IOException {
+        // register first, a file changed while the others load is then reloaded instead of missed
+        final DictWatcher watcher = new DictWatcher(this, configDir, USER_DICT_SUFFIX);
+        try {
+            init(configDir);
+        } catch (RuntimeException e) {
+            watcher.close();
+            throw e;
         }
+        return watcher;
     }
 
     /**
      * let user just use their own dict instead of the default dict
      */
     public void resetDict() {
-        _dict = new DictSegment((char) 0);
-        freqs.clear();
+        synchronized (WordDictionary.class) {
+            userDicts.clear();
+            loadedPath.clear();
+            final Snapshot current = _dict;
+            _dict = new Snapshot(DoubleArrayTrie.build(new DictSegment((char) 0)), null, current.total, current.minFreq);
+        }
+    }
+
+    private boolean loadSnapshot() {
+        final long s = System.currentTimeMillis();
+        try {
+            if (DictSnapshot.load(this)) {
+                final long elapsed = System.currentTimeMillis() - s;
+                SegmenterMetrics.getInstance().dictLoaded(elapsed);
+                LOGGER.info(String.format(Locale.getDefault(), "dict snapshot load finished, time elapsed %d ms", elapsed));
+                return true;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "dict snapshot load failure, fall back to text dict", e);
+        }
+        return false;
     }
 
     protected void loadDict() {
-        _dict = new DictSegment((char) 0);
+        // dict.txt is almost sorted already, keeping its order makes the sort below cheap
+        final Map<String, Double> freqs = new LinkedHashMap<>();
+        double minFreq = Double.MAX_VALUE;
+        double total = 0.0;
 
         final long s = System.currentTimeMillis();
         try (InputStream is = this.getClass().getResourceAsStream(MAIN_DICT)) {
@@ -80,36 +147,42 @@ public class WordDictionary {
 
             while (br.ready()) {
                 String line = br.readLine();
-                String[] tokens = line.split("[\t ]+");
+                String[] tokens = FIELDS.split(line);
 
                 if (tokens.length < 2) {
                     continue;
                 }
 
-                String word = tokens[0];
+                String word = normalizeWord(tokens[0]);
                 double freq = Double.valueOf(tokens[1]);
                 total += freq;
-                word = addWord(word);
+                if (null == word) {
+                    continue;
+                }
                 freqs.put(word, freq);
             }
-            // normalize
-            for (Entry<String, Double> entry : freqs.entrySet()) {
-                entry.setValue((Math.log(entry.getValue() / total)));
-                minFreq = Math.min(entry.getValue(), minFreq);
+            // normalize, the trie is compiled straight from the sorted words
+            final String[] words = freqs.keySet().toArray(new String[0]);
+            Arrays.sort(words);
+            final double[] logFreqs = new double[words.length];
+            for (int i = 0; i < words.length; ++i) {
+                logFreqs[i] = Math.log(freqs.get(words[i]) / total);
+                minFreq = Math.min(logFreqs[i], minFreq);
             }
+            restore(DoubleArrayTrie.build(words, logFreqs), total, minFreq);
 
-            LOGGER.info(String.format(Locale.getDefault(), "main dict load finished, time elapsed %d ms", System.currentTimeMillis() - s));
+            final long elapsed = System.currentTimeMillis() - s;
+            SegmenterMetrics.getInstance().dictLoaded(elapsed);
+            LOGGER.info(String.format(Locale.getDefault(), "main dict load finished, time elapsed %d ms", elapsed));
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, String.format(Locale.getDefault(), "%s load failure!", MAIN_DICT));
         }
     }
 
 
-    private String addWord(String word) {
+    static String normalizeWord(String word) {
         if (null != word && !word.trim().isEmpty()) {
-            String key = word.trim().toLowerCase(Locale.getDefault());
-            _dict.fillSegment(key.toCharArray());
-            return key;
+            return word.trim().toLowerCase(Locale.getDefault());
         }
 
         return null;
@@ -120,38 +193,326 @@ public class WordDictionary {
     }
 
     protected void loadUserDict(Path userDict, Charset charset) {
-        try (BufferedReader br = Files.newBufferedReader(userDict, charset)) {
+        synchronized (WordDictionary.class) {
+            readUserDict(userDict, charset);
+            applyUserDicts();
+        }
+    }
+
+    /**
+     * re-read changed user dict files, forget the deleted ones and apply the
+     * difference
+     *
+     * @param paths
+     */
+    void reloadUserDicts(final Collection<Path> paths) {
+        synchronized (WordDictionary.class) {
+            for (Path path : paths) {
+                final UserDict dict = userDicts.get(path.toAbsolutePath());
+                if (Files.isRegularFile(path)) {
+                    readUserDict(path, StandardCharsets.UTF_8);
+                } else if (null != dict) {
+                    dict.pending = Collections.emptyMap();
+                    dict.deleted = true;
+                    LOGGER.info(String.format(Locale.getDefault(), "user dict %s removed", path.toString()));
+                }
+            }
+            applyUserDicts();
+        }
+    }
+
+    private void readUserDict(Path userDict, Charset charset) {
+        final Map<String, Double> words = new HashMap<>();
+        try {
             long s = System.currentTimeMillis();
+            final int count = readWords(userDict, charset, _dict.total, words);
+            // a file read again keeps its place, so files loaded later still win
+            final UserDict dict = userDicts.computeIfAbsent(userDict.toAbsolutePath(), path -> new UserDict());
+            dict.pending = words;
+            dict.deleted = false;
+            LOGGER.info(String.format(Locale.getDefault(), "user dict %s load finished, tot words:%d, time elapsed:%dms", userDict.toString(), count, System.currentTimeMillis() - s));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, String.format(Locale.getDefault(), "%s: load user dict failure!", userDict.toString()));
+        }
+    }
+
+    /**
+     * read the "word [freq]" lines of a user dict, freq defaults to 3
+     *
+     * @param userDict
+     * @param charset
+     * @param total    the log frequencies are normalized by
+     * @param words    normalized word to log frequency
+     * @return the count of words read
+     * @throws IOException
+     */
+    static int readWords(Path userDict, Charset charset, double total, Map<String, Double> words) throws IOException {
+        try (BufferedReader br = Files.newBufferedReader(userDict, charset)) {
             int count = 0;
             while (br.ready()) {
                 String line = br.readLine();
-                String[] tokens = line.split("[\t ]+");
+                String[] tokens = FIELDS.split(line);
 
                 if (tokens.length < 1) {
                     // Ignore empty line
                     continue;
                 }
 
-                final String word = addWord(tokens[0]);
+                final String word = normalizeWord(tokens[0]);
+                if (word == null) {
+                    continue;
+                }
                 final double freq = tokens.length == 2 ? Double.parseDouble(tokens[1]) : 3.0d;
-                freqs.put(word, Math.log(freq / total));
+                words.put(word, Math.log(freq / total));
                 count++;
             }
-            LOGGER.info(String.format(Locale.getDefault(), "user dict %s load finished, tot words:%d, time elapsed:%dms", userDict.toString(), count, System.currentTimeMillis() - s));
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, String.format(Locale.getDefault(), "%s: load user dict failure!", userDict.toString()));
+            return count;
+        }
+    }
+
+    /*
+     * diff the words of every re-read user dict file against its published
+     * ones: new and changed words are filled into the staging tree of the
+     * file, removed words are disabled in place. every file has its own trie,
+     * only the tries of changed files are compiled again, in full, from their
+     * staging tree: an edit of sougou.dict costs a few hundred ms for its 94K
+     * words, an edit of a small file next to it costs next to nothing. the
+     * main dictionary and the other tries are shared by the new snapshot as
+     * they are.
+     */
+    private void applyUserDicts() {
+        final long s = System.currentTimeMillis();
+        int added = 0;
+        int changed = 0;
+        int removed = 0;
+        int rebuilt = 0;
+        for (Iterator<UserDict> it = userDicts.values().iterator(); it.hasNext(); ) {
+            final UserDict dict = it.next();
+            if (null == dict.pending) {
+                continue;
+            }
+            final Map<String, Double> words = dict.pending;
+            int changes = 0;
+            for (String word : dict.words.keySet()) {
+                if (!words.containsKey(word)) {
+                    dict.segment.disableSegment(word.toCharArray());
+                    ++removed;
+                    ++changes;
+                }
+            }
+            for (Entry<String, Double> entry : words.entrySet()) {
+                final Double old = dict.words.get(entry.getKey());
+                if (null == old) {
+                    ++added;
+                } else if (old.equals(entry.getValue())) {
+                    continue;
+                } else {
+                    ++changed;
+                }
+                ++changes;
+                dict.segment.fillSegment(entry.getKey().toCharArray(), entry.getValue());
+            }
+            dict.words = words;
+            dict.pending = null;
+            if (dict.deleted) {
+                it.remove();
+            } else if (changes > 0) {
+                dict.trie = words.isEmpty() ? null : DoubleArrayTrie.build(dict.segment);
+                ++rebuilt;
+            }
+        }
+        if (added + changed + removed == 0) {
+            return;
+        }
+
+        // the file loaded last is looked up first
+        final List<DoubleArrayTrie> overlays = new ArrayList<>();
+        for (UserDict dict : userDicts.values()) {
+            if (null != dict.trie) {
+                overlays.add(0, dict.trie);
+            }
+        }
+        final Snapshot current = _dict;
+        _dict = new Snapshot(current.trie, overlays.toArray(new DoubleArrayTrie[0]), current.total, current.minFreq);
+        LOGGER.info(String.format(Locale.getDefault(), "user words published, added:%d, changed:%d, removed:%d, tries rebuilt:%d, time elapsed:%dms",
+                added, changed, removed, rebuilt, System.currentTimeMillis() - s));
+    }
+
+    void restore(DoubleArrayTrie trie, double total, double minFreq) {
+        synchronized (WordDictionary.class) {
+            _dict = new Snapshot(trie, _dict.overlays, total, minFreq);
         }
     }
 
-    public DictSegment getTrie() {
-        return this._dict;
+    /**
+     * the current dictionary, it never changes once returned
+     */
+    Snapshot snapshot() {
+        return _dict;
+    }
+
+    public DoubleArrayTrie getTrie() {
+        return _dict.trie;
     }
 
     public boolean containsWord(String word) {
-        return freqs.containsKey(word);
+        return _dict.containsWord(word, 0, word.length());
+    }
+
+    boolean containsWord(CharSequence text, int begin, int end) {
+        return _dict.containsWord(text, begin, end);
+    }
+
+    public double getFreq(String key) {
+        return _dict.getFreq(key);
     }
 
-    public Double getFreq(String key) {
-        return containsWord(key) ? freqs.get(key) : minFreq;
+
+    /*
+     * the words of one user dict file, the staging tree they are diffed into
+     * and the trie compiled from it
+     */
+    private static final class UserDict {
+
+        Map<String, Double> words = Collections.emptyMap();
+        final DictSegment segment = new DictSegment((char) 0);
+        // null without words
+        DoubleArrayTrie trie;
+        // words read but not applied yet, null if there are none
+        Map<String, Double> pending;
+        // the file is gone, it is forgotten once its words are removed
+        boolean deleted;
+    }
+
+
+    /**
+     * immutable state of the dictionary: the main trie, the tries of user
+     * words on top of it, their normalized log frequencies, the total they
+     * were normalized by and the smallest one. every change builds a new
+     * snapshot and swaps it in.
+     * <p>
+     * the first overlay that has a word overrides the later ones and the main
+     * trie. word ids of overlay words follow the ids of the main trie, one
+     * overlay after the other.
+     */
+    static final class Snapshot {
+
+        private static final DoubleArrayTrie[] NO_OVERLAYS = new DoubleArrayTrie[0];
+
+        /**
+         * {@link #stepOverlays(int[], char)} found no word and no overlay can go on
+         */
+        static final int DEAD = -2;
+
+        final DoubleArrayTrie trie;
+        // empty without user words
+        final DoubleArrayTrie[] overlays;
+        final double total;
+        final double minFreq;
+        final int maxWordLength;
+        // word id of the first word of each overlay
+        private final int[] firstIds;
+
+        Snapshot(final DoubleArrayTrie trie, final DoubleArrayTrie[] overlays, final double total, final double minFreq) {
+            this.trie = trie;
+            this.overlays = null == overlays ? NO_OVERLAYS : overlays;
+            this.total = total;
+            this.minFreq = minFreq;
+            this.firstIds = new int[this.overlays.length];
+            int maxWordLength = trie.maxWordLength();
+            int firstId = trie.wordCount();
+            for (int k = 0; k < this.overlays.length; ++k) {
+                firstIds[k] = firstId;
+                firstId += this.overlays[k].wordCount();
+                maxWordLength = Math.max(maxWordLength, this.overlays[k].maxWordLength());
+            }
+            this.maxWordLength = maxWordLength;
+        }
+
+        int wordId(final CharSequence text, final int begin, final int end) {
+            for (int k = 0; k < overlays.length; ++k) {
+                final int wordId = overlays[k].wordId(text, begin, end);
+                if (wordId >= 0) {
+                    return firstIds[k] + wordId;
+                }
+            }
+            return trie.wordId(text, begin, end);
+        }
+
+        /**
+         * advance the walk of every overlay by ch, for walks that step the
+         * main trie themselves. start with every state at {@link DoubleArrayTrie#ROOT}.
+         *
+         * @param states one per overlay, a negative one has no prefix any more
+         * @param ch
+         * @return the word id of the first overlay word ending at ch, -1 if
+         * there is none but some overlay can go on, {@link #DEAD} otherwise
+         */
+        int stepOverlays(final int[] states, final char ch) {
+            int found = DEAD;
+            for (int k = 0; k < overlays.length; ++k) {
+                if (states[k] < 0) {
+                    continue;
+                }
+                final int state = overlays[k].step(states[k], ch);
+                states[k] = state;
+                if (state >= 0 && found < 0) {
+                    final int wordId = overlays[k].wordId(state);
+                    found = wordId >= 0 ? firstIds[k] + wordId : -1;
+                }
+            }
+            return found;
+        }
+
+        double freq(final int wordId) {
+            for (int k = overlays.length - 1; k >= 0; --k) {
+                if (wordId >= firstIds[k]) {
+                    return overlays[k].freq(wordId - firstIds[k]);
+                }
+            }
+            return trie.freq(wordId);
+        }
+
+        boolean containsWord(final CharSequence text, final int begin, final int end) {
+            return wordId(text, begin, end) >= 0;
+        }
+
+        double getFreq(final String key) {
+            final int wordId = wordId(key, 0, key.length());
+            return wordId < 0 ? minFreq : freq(wordId);
+        }
+
+        /**
+         * @return bytes of the main trie and the overlays
+         */
+        long byteSize() {
+            long bytes = trie.byteSize();
+            for (DoubleArrayTrie overlay : overlays) {
+                bytes += overlay.byteSize();
+            }
+            return bytes;
+        }
+
+        /**
+         * @return one trie holding the main and the user words
+         */
+        DoubleArrayTrie compact() {
+            if (overlays.length == 0) {
+                return trie;
+            }
+            final Map<String, Double> freqs = new HashMap<>(trie.wordCount() * 2);
+            trie.forEachWord(freqs::put);
+            // the first overlay wins, so it is put last
+            for (int k = overlays.length - 1; k >= 0; --k) {
+                overlays[k].forEachWord(freqs::put);
+            }
+            final String[] words = freqs.keySet().toArray(new String[0]);
+            Arrays.sort(words);
+            final double[] logFreqs = new double[words.length];
+            for (int i = 0; i < words.length; ++i) {
+                logFreqs[i] = freqs.get(words[i]);
+            }
+            return DoubleArrayTrie.build(words, logFreqs);
+        }
     }
 }
@@ -0,0 +1,131 @@
+package com.huaban.analysis.jieba.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * closed loop load generator for {@link SegmentServer}: every client thread
+ * posts the lines of a text file in turn and waits for each response.
+ * <pre>
+ * java -cp jieba-analysis.jar com.huaban.analysis.jieba.server.LoadGenerator url textFile [clients] [seconds] [mode]
+ * </pre>
+ * prints throughput, failures and latency percentiles.
+ */
+public final class LoadGenerator {
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: LoadGenerator <url> <textFile> [clients] [seconds] [search|index|full]");
+            System.exit(1);
+        }
+        final String mode = args.length > 4 ? args[4] : "search";
+        final URL url = new URL(args[0] + SegmentServer.PATH + "?mode=" + mode);
+        final List<byte[]> bodies = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+            if (!line.isEmpty()) {
+                bodies.add(line.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        if (bodies.isEmpty()) {
+            System.err.println("no text to send");
+            System.exit(1);
+        }
+        final int clients = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        final long seconds = args.length > 3 ? Long.parseLong(args[3]) : 10;
+
+        final long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        final AtomicInteger failures = new AtomicInteger();
+        final long[][] latencies = new long[clients][];
+        final int[] counts = new int[clients];
+        final Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; ++c) {
+            final int client = c;
+            threads[c] = new Thread(() -> {
+                long[] samples = new long[1024];
+                int n = 0;
+                int next = client;
+                while (System.nanoTime() < deadline) {
+                    final byte[] body = bodies.get(next++ % bodies.size());
+                    final long s = System.nanoTime();
+                    try {
+                        if (post(url, body) != 200) {
+                            failures.incrementAndGet();
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                        continue;
+                    }
+                    if (n == samples.length) {
+                        samples = Arrays.copyOf(samples, n << 1);
+                    }
+                    samples[n++] = System.nanoTime() - s;
+                }
+                latencies[client] = samples;
+                counts[client] = n;
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        final long[] all = new long[total];
+        int k = 0;
+        for (int c = 0; c < clients; ++c) {
+            System.arraycopy(latencies[c], 0, all, k, counts[c]);
+            k += counts[c];
+        }
+        Arrays.sort(all);
+        System.out.println(String.format(Locale.getDefault(), "requests:%d, failures:%d, throughput:%.1f req/s",
+                total, failures.get(), total * 1.0 / seconds));
+        if (total > 0) {
+            System.out.println(String.format(Locale.getDefault(), "latency ms p50:%.3f p90:%.3f p99:%.3f max:%.3f",
+                    percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), all[total - 1] / 1e6));
+        }
+    }
+
+    private static int post(final URL url, final byte[] body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+        }
+        final int status = connection.getResponseCode();
+        // drain the body so the connection is kept alive
+        try (InputStream is = status == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (null != is) {
+                final byte[] buffer = new byte[4096];
+                while (is.read(buffer) > 0) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    private static double percentile(final long[] sorted, final double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+}
@@ -0,0 +1,217 @@
+package com.huaban.analysis.jieba.server;
+
+import com.huaban.analysis.jieba.AsyncSegmenter;
+import com.huaban.analysis.jieba.JiebaSegmenter;
+import com.huaban.analysis.jieba.JiebaSegmenter.SegMode;
+import com.huaban.analysis.jieba.TokenBuffer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * standalone segmentation server on the JDK http server, the dictionary and
+ * the HMM model are loaded once and shared by every request.
+ * <pre>
+ * java -cp jieba-analysis.jar com.huaban.analysis.jieba.server.SegmentServer [port] [workers] [queueCapacity]
+ * </pre>
+ * POST UTF-8 text to /segment?mode=search (or mode=index, mode=full). the response is
+ * text/plain: "start end" byte offsets of each token into the request body,
+ * all on one line separated by spaces. a full queue answers 503.
+ * <p>
+ * requests are segmented by the workers of an {@link AsyncSegmenter}, which
+ * take queued requests in micro batches. the io threads only read requests
+ * and write responses.
+ */
+public final class SegmentServer implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(SegmentServer.class.getName());
+
+    static final String PATH = "/segment";
+
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private static final int DEFAULT_PORT = 8000;
+    private static final int MAX_BATCH_SIZE = 32;
+    // larger request bodies are refused with 413
+    static final int MAX_BODY_BYTES = 1 << 20;
+
+    private static final ThreadLocal<TokenBuffer> TOKENS = ThreadLocal.withInitial(TokenBuffer::new);
+
+    private final HttpServer server;
+    private final ExecutorService io;
+    private final AsyncSegmenter segmenter;
+
+    public SegmentServer(int port, int workers, int queueCapacity) throws IOException {
+        this(port, new AsyncSegmenter(new JiebaSegmenter(), workers, queueCapacity, MAX_BATCH_SIZE,
+                AsyncSegmenter.Overflow.REJECT, false));
+    }
+
+    /*
+     * serve on segmenter, the server closes it
+     */
+    SegmentServer(int port, AsyncSegmenter segmenter) throws IOException {
+        this.segmenter = segmenter;
+        // reading bodies and writing responses only, segmenting happens on the workers
+        this.io = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext(PATH, this::handle);
+        this.server.setExecutor(io);
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        final int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        // small responses must not wait for delayed acks, read once by the http server
+        if (null == System.getProperty(NODELAY_PROPERTY)) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+        final SegmentServer server = new SegmentServer(port, workers, queueCapacity);
+        server.start();
+        LOGGER.info(String.format(Locale.getDefault(), "segment server listening on port %d, %d workers", server.port(), workers));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        segmenter.close();
+        io.shutdown();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "POST text to segment\n".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        final SegMode mode = mode(exchange.getRequestURI().getRawQuery());
+        if (null == mode) {
+            respond(exchange, 400, "mode is search, index or full\n".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        final byte[] body = readBody(exchange.getRequestBody());
+        if (null == body) {
+            respond(exchange, 413, "request body too large\n".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+
+        segmenter.submit(s -> encode(s.process(body, 0, body.length, mode, TOKENS.get())))
+                // respond on the io threads, a slow client must not hold a worker
+                .whenCompleteAsync((response, e) -> {
+                    try {
+                        if (null == e) {
+                            respond(exchange, 200, response);
+                        } else if (unwrap(e) instanceof RejectedExecutionException) {
+                            respond(exchange, 503, "overloaded\n".getBytes(StandardCharsets.US_ASCII));
+                        } else {
+                            LOGGER.log(Level.WARNING, "segment failure", e);
+                            respond(exchange, 500, "segment failure\n".getBytes(StandardCharsets.US_ASCII));
+                        }
+                    } catch (IOException ioe) {
+                        LOGGER.log(Level.FINE, "response failure", ioe);
+                    }
+                }, io);
+    }
+
+    static SegMode mode(final String query) {
+        if (null == query || query.isEmpty()) {
+            return SegMode.SEARCH;
+        }
+        for (String param : query.split("&")) {
+            if (param.startsWith("mode=")) {
+                final String value = param.substring("mode=".length());
+                for (SegMode mode : SegMode.values()) {
+                    if (mode.name().equalsIgnoreCase(value)) {
+                        return mode;
+                    }
+                }
+                return null;
+            }
+        }
+        return SegMode.SEARCH;
+    }
+
+    /*
+     * "start end start end ...\n" in ASCII
+     */
+    static byte[] encode(final TokenBuffer tokens) {
+        // 11 bytes hold an int and its separator
+        final byte[] out = new byte[tokens.size() * 2 * 11 + 1];
+        int length = 0;
+        for (int i = 0; i < tokens.size(); ++i) {
+            if (i > 0) {
+                out[length++] = ' ';
+            }
+            length = writeInt(out, length, tokens.start(i));
+            out[length++] = ' ';
+            length = writeInt(out, length, tokens.end(i));
+        }
+        out[length++] = '\n';
+        tokens.clear();
+        return Arrays.copyOf(out, length);
+    }
+
+    private static int writeInt(final byte[] out, int length, int value) {
+        final int begin = length;
+        do {
+            out[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // digits were written backwards
+        for (int i = begin, j = length - 1; i < j; ++i, --j) {
+            final byte b = out[i];
+            out[i] = out[j];
+            out[j] = b;
+        }
+        return length;
+    }
+
+    private static byte[] readBody(final InputStream is) throws IOException {
+        byte[] bytes = new byte[4096];
+        int length = 0;
+        int n;
+        while ((n = is.read(bytes, length, bytes.length - length)) > 0) {
+            length += n;
+            if (length > MAX_BODY_BYTES) {
+                return null;
+            }
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length << 1);
+            }
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=US-ASCII");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static Throwable unwrap(final Throwable e) {
+        return e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+    }
+}
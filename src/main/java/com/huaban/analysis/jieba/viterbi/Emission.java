@@ -0,0 +1,154 @@
+package com.huaban.analysis.jieba.viterbi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+
+/**
+ * emission probabilities of the HMM, one row of {@link #STATE_COUNT} log
+ * probabilities per char known to the model.
+ * <p>
+ * chars map to their row through a dense char table, row 0 is shared by
+ * every unknown char and holds MIN_FLOAT for all states.
+ */
+final class Emission {
+
+    static final String STATES = "BMES";
+    static final int STATE_COUNT = 4;
+    static final double MIN_FLOAT = -3.14e100;
+
+    // char -> row
+    private final char[] rows;
+    // row * STATE_COUNT + state -> log probability
+    private final double[] probs;
+
+    private Emission(final char[] rows, final double[] probs) {
+        this.rows = rows;
+        this.probs = probs;
+    }
+
+    /**
+     * @param ch
+     * @return offset of the row of ch, add a state to get its probability
+     */
+    int row(final char ch) {
+        return rows[ch] * STATE_COUNT;
+    }
+
+    double prob(final int row, final int state) {
+        return probs[row + state];
+    }
+
+    /**
+     * @return chars known to the model
+     */
+    int keyCount() {
+        return probs.length / STATE_COUNT - 1;
+    }
+
+    /**
+     * size of the binary form, see {@link #writeTo(ByteBuffer)}
+     */
+    int byteSize() {
+        final int n = keyCount();
+        return Integer.BYTES + n * Character.BYTES + n * STATE_COUNT * Double.BYTES;
+    }
+
+    /**
+     * write the key count, the sorted keys and their rows in key order
+     *
+     * @param buffer
+     */
+    void writeTo(final ByteBuffer buffer) {
+        final int n = keyCount();
+        buffer.putInt(n);
+        final char[] keys = new char[n];
+        for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+            if (rows[c] > 0) {
+                keys[rows[c] - 1] = (char) c;
+            }
+        }
+        for (char key : keys) {
+            buffer.putChar(key);
+        }
+        for (int i = STATE_COUNT; i < probs.length; ++i) {
+            buffer.putDouble(probs[i]);
+        }
+    }
+
+    static Emission readFrom(final ByteBuffer buffer) {
+        final int n = buffer.getInt();
+        if (n < 0 || n > Character.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(Locale.getDefault(), "bad key count %d", n));
+        }
+        final char[] keys = new char[n];
+        buffer.asCharBuffer().get(keys);
+        buffer.position(buffer.position() + n * Character.BYTES);
+
+        final double[] probs = new double[(n + 1) * STATE_COUNT];
+        Arrays.fill(probs, 0, STATE_COUNT, MIN_FLOAT);
+        buffer.asDoubleBuffer().get(probs, STATE_COUNT, n * STATE_COUNT);
+        buffer.position(buffer.position() + n * STATE_COUNT * Double.BYTES);
+
+        final char[] rows = new char[Character.MAX_VALUE + 1];
+        for (int i = 0; i < n; ++i) {
+            rows[keys[i]] = (char) (i + 1);
+        }
+        return new Emission(rows, probs);
+    }
+
+    /**
+     * parse the text model: a line with a single state letter starts the
+     * section of that state, followed by "char\tprob" lines
+     *
+     * @param is
+     * @return Emission
+     * @throws IOException
+     */
+    static Emission parse(final InputStream is) throws IOException {
+        final double[] dense = new double[(Character.MAX_VALUE + 1) * STATE_COUNT];
+        Arrays.fill(dense, MIN_FLOAT);
+        final boolean[] known = new boolean[Character.MAX_VALUE + 1];
+        final BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        int state = -1;
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] tokens = line.split("\t");
+            if (tokens.length == 1) {
+                state = STATES.indexOf(tokens[0].charAt(0));
+            } else {
+                final char ch = tokens[0].charAt(0);
+                dense[ch * STATE_COUNT + state] = Double.valueOf(tokens[1]);
+                known[ch] = true;
+            }
+        }
+
+        // keys are numbered in char order so the binary form is sorted
+        int n = 0;
+        for (boolean k : known) {
+            if (k) {
+                ++n;
+            }
+        }
+        if (n > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("too many chars in the model");
+        }
+        final char[] rows = new char[Character.MAX_VALUE + 1];
+        final double[] probs = new double[(n + 1) * STATE_COUNT];
+        Arrays.fill(probs, 0, STATE_COUNT, MIN_FLOAT);
+        int row = 0;
+        for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+            if (known[c]) {
+                rows[c] = (char) ++row;
+                System.arraycopy(dense, c * STATE_COUNT, probs, row * STATE_COUNT, STATE_COUNT);
+            }
+        }
+        return new Emission(rows, probs);
+    }
+}
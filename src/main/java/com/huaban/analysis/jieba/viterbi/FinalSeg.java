@@ -1,17 +1,14 @@
 package com.huaban.analysis.jieba.viterbi;
 
 import com.huaban.analysis.jieba.CharacterUtil;
-import com.huaban.analysis.jieba.Pair;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.util.*;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 
 public class FinalSeg {
 
@@ -19,13 +16,34 @@ public class FinalSeg {
 
     private static FinalSeg INSTANCE = new FinalSeg();
     private static final String PROB_EMIT = "/prob_emit.txt";
-    private static char[] STATES = new char[]{'B', 'M', 'E', 'S'};
-    private static Double MIN_FLOAT = -3.14e100;
+    private static final double MIN_FLOAT = Emission.MIN_FLOAT;
 
-    private Map<Character, Map<Character, Double>> emit;
-    private Map<Character, Double> starts;
-    private Map<Character, Map<Character, Double>> trans;
-    private Map<Character, char[]> prevStates;
+    // hidden states, in the order of Emission.STATES
+    private static final int B = 0;
+    private static final int M = 1;
+    private static final int E = 2;
+    private static final int S = 3;
+    private static final int STATE_COUNT = Emission.STATE_COUNT;
+
+    // the two states each state can be reached from, a later one wins a tie
+    private static final int[][] PREV_STATES = new int[][]{{E, S}, {M, B}, {B, M}, {S, E}};
+
+    private static final double[] STARTS = new double[]{-0.26268660809250016, -3.14e+100, -3.14e+100, -1.4652633398537678};
+
+    // trans[from][to]
+    private static final double[][] TRANS = new double[][]{
+            {MIN_FLOAT, -0.916290731874155, -0.510825623765990, MIN_FLOAT},
+            {MIN_FLOAT, -1.2603623820268226, -0.33344856811948514, MIN_FLOAT},
+            {-0.5897149736854513, MIN_FLOAT, MIN_FLOAT, -0.8085250474669937},
+            {-0.7211965654669841, MIN_FLOAT, MIN_FLOAT, -0.6658631448798212}};
+
+    private Emission emission;
+    private long loadMillis;
+
+    // backpointers of the decoder, reused by each thread
+    private static final ThreadLocal<byte[]> PATHS = ThreadLocal.withInitial(() -> new byte[1024]);
+    // a longer table is used once and dropped instead of being kept by the thread
+    private static final int MAX_RETAINED_PATH = 1 << 16;
 
     private FinalSeg() {
         loadModel();
@@ -39,174 +57,195 @@ public class FinalSeg {
 
         final long s = System.currentTimeMillis();
 
-        prevStates = new HashMap<>();
-        prevStates.put('B', new char[]{'E', 'S'});
-        prevStates.put('M', new char[]{'M', 'B'});
-        prevStates.put('S', new char[]{'S', 'E'});
-        prevStates.put('E', new char[]{'B', 'M'});
-
-        starts = new HashMap<>(4);
-        starts.put('B', -0.26268660809250016);
-        starts.put('E', -3.14e+100);
-        starts.put('M', -3.14e+100);
-        starts.put('S', -1.4652633398537678);
-
-        trans = new HashMap<>(4);
-        final Map<Character, Double> transB = new HashMap<>(2);
-        transB.put('E', -0.510825623765990);
-        transB.put('M', -0.916290731874155);
-        trans.put('B', transB);
-        final Map<Character, Double> transE = new HashMap<>(2);
-        transE.put('B', -0.5897149736854513);
-        transE.put('S', -0.8085250474669937);
-        trans.put('E', transE);
-        final Map<Character, Double> transM = new HashMap<>(2);
-        transM.put('E', -0.33344856811948514);
-        transM.put('M', -1.2603623820268226);
-        trans.put('M', transM);
-        final Map<Character, Double> transS = new HashMap<>(2);
-        transS.put('B', -0.7211965654669841);
-        transS.put('S', -0.6658631448798212);
-        trans.put('S', transS);
-
-        try (InputStream is = this.getClass().getResourceAsStream(PROB_EMIT)) {
-            final BufferedReader br = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
-            emit = new HashMap<>();
-            Map<Character, Double> values = new HashMap<>();
-            while (br.ready()) {
-                String line = br.readLine();
-                String[] tokens = line.split("\t");
-                if (tokens.length == 1) {
-                    values = new HashMap<>();
-                    emit.put(tokens[0].charAt(0), values);
-                } else {
-                    values.put(tokens[0].charAt(0), Double.valueOf(tokens[1]));
-                }
+        emission = loadEmission();
+
+        loadMillis = System.currentTimeMillis() - s;
+        LOGGER.info(String.format(Locale.getDefault(), "model load finished, time elapsed %d ms.", loadMillis));
+    }
+
+    /**
+     * read the binary model, or parse the text model if there is no usable one
+     *
+     * @return null if neither model can be read
+     */
+    static Emission loadEmission() {
+        try {
+            final Emission emission = ModelSnapshot.load();
+            if (null != emission) {
+                return emission;
             }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "model snapshot load failure, fall back to text model", e);
+        }
+
+        try (InputStream is = FinalSeg.class.getResourceAsStream(PROB_EMIT)) {
+            return Emission.parse(is);
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, String.format(Locale.getDefault(), "%s: load model failure!", PROB_EMIT));
+            return null;
         }
+    }
 
-        LOGGER.info(String.format(Locale.getDefault(), "model load finished, time elapsed %d ms.", System.currentTimeMillis() - s));
+    /**
+     * @return how long loading the model took
+     */
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+
+    /**
+     * @return heap bytes of the model tables, 0 if the model failed to load
+     */
+    public long getModelBytes() {
+        return null == emission ? 0 : emission.byteSize();
     }
 
     public void cut(final String sentence, final List<String> cuts) {
-        StringBuilder chinese = new StringBuilder();
-        StringBuilder unknown = new StringBuilder();
-        for (int i = 0, len = sentence.length(); i < len; i += 1) {
-            final char ch = sentence.charAt(i);
-            if (CharacterUtil.isChineseLetter(ch)) {
-                if (unknown.length() > 0) {
-                    processOtherUnknownWords(unknown, cuts);
-                    unknown = new StringBuilder();
-                }
-                chinese.append(ch);
+        cut(sentence, 0, sentence.length(), new Words(sentence, 0, cuts));
+    }
+
+
+    /**
+     * segment sentence[begin, end), the words cover the range one after
+     * another and are reported by their end offsets only
+     *
+     * @param sentence
+     * @param begin
+     * @param end
+     * @param wordEnds receives the end offset of each word, in order
+     */
+    public void cut(final CharSequence sentence, final int begin, final int end, final IntConsumer wordEnds) {
+        int from = begin;
+        while (from < end) {
+            final boolean chinese = CharacterUtil.isChineseLetter(sentence.charAt(from));
+            int to = from + 1;
+            while (to < end && CharacterUtil.isChineseLetter(sentence.charAt(to)) == chinese) {
+                ++to;
+            }
+            if (chinese) {
+                viterbi(sentence, from, to, wordEnds);
             } else {
-                if (chinese.length() > 0) {
-                    viterbi(chinese, cuts);
-                    chinese = new StringBuilder();
-                }
-                unknown.append(ch);
+                processOtherUnknownWords(sentence, from, to, wordEnds);
             }
-
-        }
-        if (chinese.length() > 0)
-            viterbi(chinese.toString(), cuts);
-        else {
-            processOtherUnknownWords(unknown, cuts);
+            from = to;
         }
     }
 
 
     public void viterbi(final CharSequence sentence, final List<String> cuts) {
+        viterbi(sentence, 0, sentence.length(), new Words(sentence, 0, cuts));
+    }
+
 
-        final int length = sentence.length();
-        final List<Map<Character, Double>> v = new LinkedList<>();
+    private void viterbi(final CharSequence sentence, final int begin, final int end, final IntConsumer wordEnds) {
+        final int length = end - begin;
+        byte[] path = PATHS.get();
+        final int needed = length * STATE_COUNT;
+        if (path.length < needed) {
+            path = new byte[Math.max(needed, Math.min(path.length << 1, MAX_RETAINED_PATH))];
+            if (path.length <= MAX_RETAINED_PATH) {
+                PATHS.set(path);
+            }
+        }
 
-        Map<Character, Node> path = new HashMap<>();
-        v.add(new HashMap<>());
-        for (char state : STATES) {
-            Double emP = emit.get(state).getOrDefault(sentence.charAt(0), MIN_FLOAT);
-            v.get(0).put(state, starts.get(state) + emP);
-            path.put(state, new Node(state, null));
+        // rolling columns of the probability table
+        double[] v = new double[STATE_COUNT];
+        double[] column = new double[STATE_COUNT];
+        final Emission emission = this.emission;
+        final int first = emission.row(sentence.charAt(begin));
+        for (int y = 0; y < STATE_COUNT; ++y) {
+            v[y] = STARTS[y] + emission.prob(first, y);
         }
 
         for (int i = 1; i < length; ++i) {
-            final Map<Character, Double> vv = new HashMap<>();
-            v.add(vv);
-            Map<Character, Node> newPath = new HashMap<>();
-            for (char y : STATES) {
-                Double emp = emit.get(y).getOrDefault(sentence.charAt(i), MIN_FLOAT);
-                Pair<Character> candidate = null;
-                for (char y0 : prevStates.get(y)) {
-                    Double tranp = trans.get(y0).getOrDefault(y, MIN_FLOAT);
-                    tranp += (emp + v.get(i - 1).get(y0));
-                    if (null == candidate) {
-                        candidate = new Pair<>(y0, tranp);
-                    } else if (candidate.freq <= tranp) {
-                        candidate.freq = tranp;
-                        candidate.key = y0;
+            final int row = emission.row(sentence.charAt(begin + i));
+            for (int y = 0; y < STATE_COUNT; ++y) {
+                final double emp = emission.prob(row, y);
+                final int[] prev = PREV_STATES[y];
+                int best = prev[0];
+                double bestProb = TRANS[best][y] + (emp + v[best]);
+                for (int k = 1; k < prev.length; ++k) {
+                    final int y0 = prev[k];
+                    final double tranp = TRANS[y0][y] + (emp + v[y0]);
+                    if (bestProb <= tranp) {
+                        bestProb = tranp;
+                        best = y0;
                     }
                 }
-                vv.put(y, candidate.freq);
-                newPath.put(y, new Node(y, path.get(candidate.key)));
+                column[y] = bestProb;
+                path[i * STATE_COUNT + y] = (byte) best;
             }
-            path = newPath;
+            final double[] swap = v;
+            v = column;
+            column = swap;
         }
 
-        double probE = v.get(sentence.length() - 1).get('E');
-        double probS = v.get(sentence.length() - 1).get('S');
-
-        List<Character> posList = new ArrayList<>(length);
-        Node win = probE < probS ? path.get('S') : path.get('E');
-        while (win != null) {
-            posList.add(win.value);
-            win = win.parent;
+        // walk the backpointers from the winning final state, keep the
+        // decoded state of each position in the slot of state 0
+        int state = v[E] < v[S] ? S : E;
+        for (int i = length - 1; i > 0; --i) {
+            final int prev = path[i * STATE_COUNT + state];
+            path[i * STATE_COUNT] = (byte) state;
+            state = prev;
         }
-        Collections.reverse(posList);
-
-        int begin = 0, next = 0;
-        for (int i = 0, len = sentence.length(); i < len; i += 1) {
-            char pos = posList.get(i);
-            if (pos == 'B') {
-                begin = i;
-            } else if (pos == 'E') {
-                cuts.add(sentence.subSequence(begin, i + 1).toString());
-                next = i + 1;
-            } else if (pos == 'S') {
-                cuts.add(sentence.subSequence(i, i + 1).toString());
+        path[0] = (byte) state;
+
+        // the decoded path only takes allowed transitions, so a word
+        // ends at every E or S and nothing is skipped
+        int next = 0;
+        for (int i = 0; i < length; i += 1) {
+            final int pos = path[i * STATE_COUNT];
+            if (pos == E || pos == S) {
+                wordEnds.accept(begin + i + 1);
                 next = i + 1;
             }
         }
 
         if (next < length) {
-            cuts.add(sentence.subSequence(next, length).toString());
+            wordEnds.accept(end);
         }
     }
 
-    private void processOtherUnknownWords(final CharSequence other, List<String> tokens) {
-        final Matcher mat = CharacterUtil.reSkip.matcher(other);
-        int offset = 0;
-        while (mat.find()) {
-            if (mat.start() > offset) {
-                tokens.add(other.subSequence(offset, mat.start()).toString());
+    private void processOtherUnknownWords(final CharSequence sentence, final int begin, final int end,
+                                          final IntConsumer wordEnds) {
+        int offset = begin;
+        for (int i = begin; i < end; ) {
+            final int token = CharacterUtil.skipTokenEnd(sentence, i, end);
+            if (token == i) {
+                ++i;
+                continue;
             }
-            tokens.add(mat.group());
-            offset = mat.end();
+            if (i > offset) {
+                wordEnds.accept(i);
+            }
+            wordEnds.accept(token);
+            offset = i = token;
         }
-        if (offset < other.length()) {
-            tokens.add(other.subSequence(offset, other.length()).toString());
+        if (offset < end) {
+            wordEnds.accept(end);
         }
     }
 
-    protected static class Node {
 
-        protected char value;
-        protected Node parent;
+    /*
+     * turns word ends back into strings for the List based methods
+     */
+    private static final class Words implements IntConsumer {
+
+        private final CharSequence sentence;
+        private final List<String> words;
+        private int begin;
+
+        Words(final CharSequence sentence, final int begin, final List<String> words) {
+            this.sentence = sentence;
+            this.begin = begin;
+            this.words = words;
+        }
 
-        public Node(char value, Node parent) {
-            this.value = value;
-            this.parent = parent;
+        @Override
+        public void accept(final int end) {
+            words.add(sentence.subSequence(begin, end).toString());
+            begin = end;
         }
     }
 }
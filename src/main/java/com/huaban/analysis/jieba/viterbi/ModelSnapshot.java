@@ -0,0 +1,122 @@
+package com.huaban.analysis.jieba.viterbi;
+
+import com.huaban.analysis.jieba.DictSnapshot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+
+/**
+ * binary form of the HMM emission model: the sorted chars of the model and
+ * their B, M, E, S log probabilities, loaded with one bulk read.
+ * <p>
+ * convert prob_emit.txt with
+ * <pre>
+ * java -cp jieba-analysis.jar com.huaban.analysis.jieba.viterbi.ModelSnapshot prob_emit.bin [prob_emit.txt]
+ * </pre>
+ * the jar ships a converted {@value #MODEL_RESOURCE}; the {@value #MODEL_PROPERTY}
+ * system property points at another model file, which is memory mapped.
+ */
+public final class ModelSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(ModelSnapshot.class.getName());
+
+    static final String MODEL_PROPERTY = "jieba.hmm.model";
+    static final String MODEL_RESOURCE = "/prob_emit.bin";
+    static final String TEXT_RESOURCE = "/prob_emit.txt";
+
+    // "JBHM"
+    private static final int MAGIC = 0x4a42484d;
+    private static final int VERSION = 1;
+
+    // magic, version
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+
+    private ModelSnapshot() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ModelSnapshot <output> [prob_emit.txt]");
+            System.exit(1);
+        }
+
+        final Emission emission;
+        if (args.length > 1) {
+            try (InputStream is = Files.newInputStream(Paths.get(args[1]))) {
+                emission = Emission.parse(is);
+            }
+        } else {
+            try (InputStream is = ModelSnapshot.class.getResourceAsStream(TEXT_RESOURCE)) {
+                emission = Emission.parse(is);
+            }
+        }
+        write(emission, Paths.get(args[0]));
+    }
+
+    static void write(final Emission emission, final Path output) throws IOException {
+        final int size = HEADER_BYTES + emission.byteSize();
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        emission.writeTo(buffer);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        LOGGER.info(String.format(Locale.getDefault(), "model snapshot %s written, chars:%d, size:%d bytes",
+                output.toString(), emission.keyCount(), size));
+    }
+
+    /**
+     * read the configured binary model
+     *
+     * @return null if no usable model is found
+     * @throws IOException
+     */
+    static Emission load() throws IOException {
+        final String location = System.getProperty(MODEL_PROPERTY);
+        final ByteBuffer buffer;
+        if (null != location && !location.isEmpty()) {
+            final Path path = Paths.get(location);
+            if (!Files.isRegularFile(path)) {
+                LOGGER.warning(String.format(Locale.getDefault(), "model snapshot %s not found", location));
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } else {
+            try (InputStream is = ModelSnapshot.class.getResourceAsStream(MODEL_RESOURCE)) {
+                if (null == is) {
+                    return null;
+                }
+                buffer = ByteBuffer.wrap(DictSnapshot.readFully(is));
+            }
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            LOGGER.warning("model snapshot is not recognized, ignored");
+            return null;
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            LOGGER.warning(String.format(Locale.getDefault(), "model snapshot version %d is not supported, ignored", version));
+            return null;
+        }
+        return Emission.readFrom(buffer);
+    }
+}
@@ -0,0 +1,149 @@
+package com.huaban.analysis.jieba;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+public class DAGTest extends TestCase {
+
+    private static final String SENTENCE = "我来到北京清华大学";
+    private static final double MIN_FREQ = -12.0;
+
+
+    private static DoubleArrayTrie trie(final Map<String, Double> words) {
+        final TreeMap<String, Double> sorted = new TreeMap<>(words);
+        final String[] keys = sorted.keySet().toArray(new String[0]);
+        final double[] freqs = new double[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            freqs[i] = sorted.get(keys[i]);
+        }
+        return DoubleArrayTrie.build(keys, freqs);
+    }
+
+
+    private static DoubleArrayTrie mainTrie() {
+        final Map<String, Double> words = new TreeMap<>();
+        words.put("我", -5.0);
+        words.put("来", -7.0);
+        words.put("来到", -6.0);
+        words.put("到", -7.0);
+        words.put("北京", -6.0);
+        words.put("清华", -6.0);
+        words.put("清华大学", -5.0);
+        words.put("华大", -9.0);
+        words.put("大学", -6.0);
+        return trie(words);
+    }
+
+
+    /*
+     * the word ends of the edges leaving each position
+     */
+    private static List<List<Integer>> edges(final DAG dag, final int n) {
+        final List<List<Integer>> edges = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            final List<Integer> ends = new ArrayList<>();
+            for (int e = dag.firstEdge(i); e < dag.firstEdge(i + 1); ++e) {
+                ends.add(dag.edgeEnd(e));
+            }
+            edges.add(ends);
+        }
+        return edges;
+    }
+
+
+    @Test
+    public void testEdges() {
+        final DAG dag = new DAG();
+        dag.build(new WordDictionary.Snapshot(mainTrie(), null, 1.0, MIN_FREQ), SENTENCE);
+        // 京 and 学 start no word and only get the edge to themselves
+        assertEquals(Arrays.asList(
+                Arrays.asList(0),
+                Arrays.asList(1, 2),
+                Arrays.asList(2),
+                Arrays.asList(4),
+                Arrays.asList(4),
+                Arrays.asList(6, 8),
+                Arrays.asList(7),
+                Arrays.asList(8),
+                Arrays.asList(8)), edges(dag, SENTENCE.length()));
+        assertEquals(11, dag.firstEdge(SENTENCE.length()));
+    }
+
+
+    @Test
+    public void testFreqs() {
+        final Map<String, Double> user = new TreeMap<>();
+        user.put("清华", -4.0);
+        user.put("大学", -0.5);
+        final Map<String, Double> later = new TreeMap<>();
+        later.put("大学", -20.0);
+        final DoubleArrayTrie main = mainTrie();
+        final DoubleArrayTrie first = trie(user);
+        final DoubleArrayTrie second = trie(later);
+
+        final DAG dag = new DAG();
+        final WordDictionary.Snapshot plain = new WordDictionary.Snapshot(main, null, 1.0, MIN_FREQ);
+        dag.build(plain, SENTENCE);
+        dag.calc();
+        assertEquals(2, dag.route(1));
+        assertEquals(8, dag.route(5));
+
+        // the frequencies of the first overlay that has a word win
+        final WordDictionary.Snapshot layered = new WordDictionary.Snapshot(main, new DoubleArrayTrie[]{first, second}, 1.0, MIN_FREQ);
+        assertEquals(-0.5, layered.getFreq("大学"));
+        assertEquals(-4.0, layered.getFreq("清华"));
+        assertEquals(-5.0, layered.getFreq("清华大学"));
+        assertEquals(MIN_FREQ, layered.getFreq("华学"));
+        dag.build(layered, SENTENCE);
+        dag.calc();
+        assertEquals(6, dag.route(5));
+        assertEquals(8, dag.route(7));
+
+        final WordDictionary.Snapshot swapped = new WordDictionary.Snapshot(main, new DoubleArrayTrie[]{second, first}, 1.0, MIN_FREQ);
+        assertEquals(-20.0, swapped.getFreq("大学"));
+        dag.build(swapped, SENTENCE);
+        dag.calc();
+        assertEquals(8, dag.route(5));
+    }
+
+
+    @Test
+    public void testReuse() {
+        final WordDictionary.Snapshot dict = new WordDictionary.Snapshot(mainTrie(), null, 1.0, MIN_FREQ);
+        final DAG fresh = new DAG();
+        fresh.build(dict, SENTENCE);
+        fresh.calc();
+
+        // longer than the arrays a DAG keeps after release
+        final StringBuilder text = new StringBuilder();
+        while (text.length() <= 1 << 16) {
+            text.append(SENTENCE);
+        }
+        final DAG dag = new DAG();
+        dag.build(dict, text);
+        dag.calc();
+        final int n = SENTENCE.length();
+        final int last = text.length() - n;
+        for (int i = 0; i < n; ++i) {
+            assertEquals(fresh.route(i) + last, dag.route(last + i));
+            assertEquals(fresh.firstEdge(i + 1) - fresh.firstEdge(i), dag.firstEdge(last + i + 1) - dag.firstEdge(last + i));
+        }
+
+        for (int round = 0; round < 2; ++round) {
+            dag.release();
+            dag.build(dict, SENTENCE);
+            dag.calc();
+            assertEquals(edges(fresh, n), edges(dag, n));
+            for (int i = 0; i < n; ++i) {
+                assertEquals(fresh.route(i), dag.route(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.huaban.analysis.jieba;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+public class DoubleArrayTrieTest extends TestCase {
+
+    // sorted by String.compareTo, 中国人民 and 大学 are leaves only
+    private static final String[] WORDS = new String[]{"c++", "中国", "中国人", "中国人民", "人民", "北京", "大学"};
+    private static final double[] FREQS = new double[]{-9.5, -6.0, -8.25, -10.0, -7.5, -6.5, -7.0};
+
+
+    private static DoubleArrayTrie fromSegment() {
+        final DictSegment root = new DictSegment((char) 0);
+        // the tree does not care about the order words are added in
+        for (int i = WORDS.length - 1; i >= 0; --i) {
+            root.fillSegment(WORDS[i].toCharArray(), FREQS[i]);
+        }
+        return DoubleArrayTrie.build(root);
+    }
+
+
+    private static DoubleArrayTrie fromSortedWords() {
+        return DoubleArrayTrie.build(WORDS, FREQS);
+    }
+
+
+    private static void assertTrie(final DoubleArrayTrie trie) {
+        assertEquals(WORDS.length, trie.wordCount());
+        assertEquals(4, trie.maxWordLength());
+
+        // lookup
+        final Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < WORDS.length; ++i) {
+            final int wordId = trie.wordId(WORDS[i]);
+            assertTrue(WORDS[i], wordId >= 0);
+            assertTrue(ids.add(wordId));
+            assertEquals(FREQS[i], trie.freq(wordId));
+            assertTrue(trie.match(WORDS[i].toCharArray()).isMatch());
+        }
+        assertEquals(trie.wordId("北京"), trie.wordId("在北京", 1, 3));
+
+        // a prefix that is a word, and one that is not
+        Hit hit = trie.match("中国".toCharArray());
+        assertTrue(hit.isMatch());
+        assertTrue(hit.isPrefix());
+        hit = trie.match("中".toCharArray());
+        assertFalse(hit.isMatch());
+        assertTrue(hit.isPrefix());
+        assertEquals(-1, trie.wordId("中"));
+        assertEquals(-1, trie.wordId("c+"));
+
+        // a leaf only word is no prefix
+        hit = trie.match("中国人民".toCharArray());
+        assertTrue(hit.isMatch());
+        assertFalse(hit.isPrefix());
+        assertFalse(trie.match("大学".toCharArray()).isPrefix());
+
+        // misses
+        assertEquals(-1, trie.wordId(""));
+        assertEquals(-1, trie.wordId("国"));
+        assertEquals(-1, trie.wordId("日本"));
+        assertEquals(-1, trie.wordId("中国人民银行"));
+        assertEquals(-1, trie.wordId("C++"));
+        hit = trie.match("日本".toCharArray());
+        assertFalse(hit.isMatch());
+        assertFalse(hit.isPrefix());
+
+        // step walks the same states char by char
+        int state = DoubleArrayTrie.ROOT;
+        final String word = "中国人民";
+        for (int i = 0; i < word.length(); ++i) {
+            state = trie.step(state, word.charAt(i));
+            assertTrue(state >= 0);
+            assertEquals(trie.wordId(word.substring(0, i + 1)), trie.wordId(state));
+        }
+        assertEquals(-1, trie.step(state, '们'));
+        assertEquals(-1, trie.step(DoubleArrayTrie.ROOT, '国'));
+
+        final Map<String, Double> words = new HashMap<>();
+        trie.forEachWord(words::put);
+        assertEquals(WORDS.length, words.size());
+        for (int i = 0; i < WORDS.length; ++i) {
+            assertEquals(FREQS[i], words.get(WORDS[i]));
+        }
+    }
+
+
+    @Test
+    public void testBuildFromSegment() {
+        assertTrie(fromSegment());
+    }
+
+
+    @Test
+    public void testBuildFromSortedWords() {
+        assertTrie(fromSortedWords());
+    }
+
+
+    @Test
+    public void testEmpty() {
+        final DoubleArrayTrie trie = DoubleArrayTrie.build(new DictSegment((char) 0));
+        assertEquals(0, trie.wordCount());
+        assertEquals(-1, trie.wordId("中国"));
+        assertEquals(0, DoubleArrayTrie.build(new String[0], new double[0]).wordCount());
+    }
+
+
+    @Test
+    public void testSerialization() {
+        final DoubleArrayTrie trie = fromSortedWords();
+        final ByteBuffer heap = ByteBuffer.allocate(trie.byteSize()).order(ByteOrder.LITTLE_ENDIAN);
+        trie.writeTo(heap);
+        assertFalse(heap.hasRemaining());
+        heap.flip();
+        assertTrie(DoubleArrayTrie.readFrom(heap));
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(trie.byteSize()).order(ByteOrder.LITTLE_ENDIAN);
+        trie.writeTo(direct);
+        direct.flip();
+        assertTrie(DoubleArrayTrie.map(direct));
+    }
+}
@@ -4,13 +4,33 @@
 package com.huaban.analysis.jieba;
 
 import com.huaban.analysis.jieba.JiebaSegmenter.SegMode;
+import com.huaban.analysis.jieba.viterbi.FinalSeg;
 import junit.framework.TestCase;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
 
 
 /**
@@ -115,7 +135,8 @@ public class JiebaSegmenterTest extends TestCase {
 
     @Override
     protected void setUp() throws Exception {
-        WordDictionary.getInstance().init(Paths.get("conf"));
+        // conf is copied to the test classpath, so it loads whatever the working directory is
+        WordDictionary.getInstance().init(Paths.get(getClass().getResource("/conf/user.dict").toURI()).getParent());
     }
 
 
@@ -199,4 +220,528 @@ public class JiebaSegmenterTest extends TestCase {
         List<SegToken> tokens = segmenter.process("贝克汉姆同款风衣", SegMode.SEARCH);
         System.out.println(tokens);
     }
+
+
+    @Test
+    public void testTokenStream() {
+        StringBuilder text = new StringBuilder();
+        for (String sentence : sentences) {
+            text.append(sentence).append('\n');
+        }
+        for (SegMode mode : SegMode.values()) {
+            List<SegToken> expected = segmenter.process(text.toString(), mode);
+            Iterator<SegToken> it = segmenter.tokenize(new StringReader(text.toString()), mode);
+            for (SegToken token : expected) {
+                assertTrue(it.hasNext());
+                assertEquals(token.toString(), it.next().toString());
+            }
+            assertFalse(it.hasNext());
+        }
+    }
+
+
+    @Test
+    public void testTokenBuffer() {
+        TokenBuffer buffer = new TokenBuffer(true);
+        for (SegMode mode : SegMode.values()) {
+            for (String sentence : sentences) {
+                List<SegToken> expected = segmenter.process(sentence, mode);
+                segmenter.process(sentence, mode, buffer);
+                assertEquals(expected.size(), buffer.size());
+                for (int i = 0; i < buffer.size(); ++i) {
+                    SegToken token = expected.get(i);
+                    assertEquals(token.getStartOffset(), buffer.start(i));
+                    assertEquals(token.getEndOffset(), buffer.end(i));
+                    assertEquals(token.getWord(), buffer.word(i));
+                    assertEquals(WordDictionary.getInstance().containsWord(token.getWord()), buffer.wordId(i) >= 0);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testUtf8() {
+        TokenBuffer buffer = new TokenBuffer();
+        for (SegMode mode : SegMode.values()) {
+            for (String sentence : sentences) {
+                List<SegToken> expected = segmenter.process(sentence, mode);
+                byte[] bytes = ("\uD83D\uDE00" + sentence).getBytes(StandardCharsets.UTF_8);
+                segmenter.process(bytes, 4, bytes.length - 4, mode, buffer);
+                assertEquals(expected.size(), buffer.size());
+                for (int i = 0; i < buffer.size(); ++i) {
+                    SegToken token = expected.get(i);
+                    int start = 4 + sentence.substring(0, token.getStartOffset()).getBytes(StandardCharsets.UTF_8).length;
+                    int end = 4 + sentence.substring(0, token.getEndOffset()).getBytes(StandardCharsets.UTF_8).length;
+                    assertEquals(start, buffer.start(i));
+                    assertEquals(end, buffer.end(i));
+                    assertEquals(token.getWord(), buffer.word(i));
+                }
+            }
+        }
+        byte[] bytes = "a\uD83D\uDE00b".getBytes(StandardCharsets.UTF_8);
+        segmenter.process(bytes, 0, bytes.length, SegMode.SEARCH, buffer);
+        assertEquals(3, buffer.size());
+        assertEquals(1, buffer.start(1));
+        assertEquals(5, buffer.end(1));
+        assertEquals("\uD83D\uDE00", buffer.word(1));
+    }
+
+
+    @Test
+    public void testProcessBatch() {
+        List<String> documents = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            documents.addAll(Arrays.asList(sentences));
+        }
+        List<List<SegToken>> batch = segmenter.processBatch(documents, SegMode.INDEX);
+        List<List<SegToken>> stream = segmenter.processBatch(documents.stream(), SegMode.INDEX);
+        assertEquals(documents.size(), batch.size());
+        assertEquals(documents.size(), stream.size());
+        for (int i = 0; i < documents.size(); ++i) {
+            String expected = segmenter.process(documents.get(i), SegMode.INDEX).toString();
+            assertEquals(expected, batch.get(i).toString());
+            assertEquals(expected, stream.get(i).toString());
+        }
+    }
+
+
+    @Test
+    public void testParallelProcess() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1 << 17) {
+            for (String sentence : sentences) {
+                text.append(sentence);
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (SegMode mode : SegMode.values()) {
+                assertEquals(segmenter.process(text.toString(), mode).toString(),
+                        segmenter.process(text.toString(), mode, pool).toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testAsyncSegmenter() throws Exception {
+        List<CompletableFuture<List<SegToken>>> futures = new ArrayList<>();
+        try (AsyncSegmenter async = new AsyncSegmenter(segmenter, 2, 8, 4, AsyncSegmenter.Overflow.BLOCK, true)) {
+            for (String sentence : sentences) {
+                futures.add(async.submit(sentence, SegMode.SEARCH));
+            }
+            for (int i = 0; i < sentences.length; ++i) {
+                assertEquals(segmenter.process(sentences[i], SegMode.SEARCH).toString(), futures.get(i).get().toString());
+            }
+        }
+
+        // the calls of a batch keep the snapshot pinned when it started, even across a reload
+        WordDictionary dict = WordDictionary.getInstance();
+        segmenter.runBatch(() -> {
+            WordDictionary.Snapshot pinned = segmenter.snapshot();
+            WordDictionary.Snapshot current = dict.snapshot();
+            dict.restore(current.trie, current.total, current.minFreq);
+            assertNotSame(current, dict.snapshot());
+            assertSame(pinned, segmenter.snapshot());
+        });
+        assertSame(dict.snapshot(), segmenter.snapshot());
+    }
+
+
+    @Test
+    public void testDictSnapshot() throws Exception {
+        WordDictionary dict = WordDictionary.getInstance();
+        WordDictionary.Snapshot original = dict.snapshot();
+        DoubleArrayTrie compact = original.compact();
+        List<String> expected = new ArrayList<>();
+        for (String sentence : sentences) {
+            expected.add(segmenter.process(sentence, SegMode.SEARCH).toString());
+        }
+
+        Path file = Files.createTempFile("jieba-dict", ".snapshot");
+        try {
+            DictSnapshot.write(dict, file);
+            System.setProperty(DictSnapshot.SNAPSHOT_PROPERTY, file.toString());
+            for (String mmap : new String[]{"false", "true"}) {
+                System.setProperty(DictSnapshot.MMAP_PROPERTY, mmap);
+                WordDictionary loaded = new WordDictionary(false);
+                assertTrue(DictSnapshot.load(loaded));
+                WordDictionary.Snapshot snapshot = loaded.snapshot();
+                assertEquals(original.total, snapshot.total);
+                assertEquals(original.minFreq, snapshot.minFreq);
+                assertEquals(compact.wordCount(), snapshot.trie.wordCount());
+                snapshot.trie.forEachWord((word, freq) -> assertEquals(word, original.getFreq(word), freq));
+
+                // serve the loaded trie and segment the same way as the text dict and conf
+                dict.restore(snapshot.trie, snapshot.total, snapshot.minFreq);
+                try {
+                    for (int i = 0; i < sentences.length; ++i) {
+                        assertEquals(expected.get(i), segmenter.process(sentences[i], SegMode.SEARCH).toString());
+                    }
+                } finally {
+                    dict.restore(original.trie, original.total, original.minFreq);
+                }
+            }
+
+            byte[] bytes = Files.readAllBytes(file);
+            byte[] badMagic = bytes.clone();
+            badMagic[0] ^= 1;
+            Files.write(file, badMagic);
+            assertFalse(DictSnapshot.load(new WordDictionary(false)));
+
+            byte[] badVersion = bytes.clone();
+            badVersion[4] += 1;
+            Files.write(file, badVersion);
+            assertFalse(DictSnapshot.load(new WordDictionary(false)));
+        } finally {
+            System.clearProperty(DictSnapshot.SNAPSHOT_PROPERTY);
+            System.clearProperty(DictSnapshot.MMAP_PROPERTY);
+            Files.delete(file);
+        }
+    }
+
+
+    @Test
+    public void testDictWatcher() throws Exception {
+        WordDictionary dict = WordDictionary.getInstance();
+        Path dir = Files.createTempDirectory("jieba-dict");
+        Path file = dir.resolve("watched.dict");
+        Path seed = dir.resolve("seed.dict");
+        String sentence = "今天的砸蛋机器人很忙";
+        // a file already in the directory is loaded by watch itself
+        Files.write(seed, "砸锅机器人 100000\n".getBytes(StandardCharsets.UTF_8));
+        DictWatcher watcher = dict.watch(dir);
+        try {
+            assertTrue(dict.containsWord("砸锅机器人"));
+            DoubleArrayTrie[] before = dict.snapshot().overlays;
+            assertFalse(dict.containsWord("砸蛋机器人"));
+            Files.write(file, "砸蛋机器人 100000\n".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 200 && !dict.containsWord("砸蛋机器人"); ++i) {
+                Thread.sleep(50);
+            }
+            assertTrue(dict.containsWord("砸蛋机器人"));
+            assertTrue(segmenter.sentenceProcess(sentence).contains("砸蛋机器人"));
+            // the tries of the other user dict files are shared, not compiled again
+            List<DoubleArrayTrie> overlays = Arrays.asList(dict.snapshot().overlays);
+            for (DoubleArrayTrie trie : before) {
+                assertTrue(overlays.contains(trie));
+            }
+
+            Files.delete(file);
+            for (int i = 0; i < 200 && dict.containsWord("砸蛋机器人"); ++i) {
+                Thread.sleep(50);
+            }
+            assertFalse(dict.containsWord("砸蛋机器人"));
+            assertFalse(segmenter.sentenceProcess(sentence).contains("砸蛋机器人"));
+
+            Files.delete(seed);
+            for (int i = 0; i < 200 && dict.containsWord("砸锅机器人"); ++i) {
+                Thread.sleep(50);
+            }
+            assertFalse(dict.containsWord("砸锅机器人"));
+        } finally {
+            watcher.close();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(seed);
+            Files.delete(dir);
+        }
+    }
+
+
+    @Test
+    public void testOverlayDictionary() {
+        String sentence = "今天的蛋糕机器人很忙";
+        Map<String, Integer> words = new HashMap<>();
+        words.put("蛋糕机器人", 100000);
+        OverlayDictionary overlay = OverlayDictionary.of(words);
+        assertEquals(1, overlay.size());
+        assertTrue(overlay.containsWord("蛋糕机器人"));
+
+        JiebaSegmenter tenant = new JiebaSegmenter(overlay);
+        JiebaSegmenter other = new JiebaSegmenter(OverlayDictionary.of(new HashMap<String, Integer>()));
+        assertTrue(tenant.sentenceProcess(sentence).contains("蛋糕机器人"));
+        assertFalse(other.sentenceProcess(sentence).contains("蛋糕机器人"));
+        assertFalse(segmenter.sentenceProcess(sentence).contains("蛋糕机器人"));
+        assertFalse(WordDictionary.getInstance().containsWord("蛋糕机器人"));
+
+        // the user dicts of the shared dictionary stay beneath the tenant words
+        String userSentence = "图片都存在又拍云上";
+        assertTrue(segmenter.sentenceProcess(userSentence).contains("又拍云"));
+        assertTrue(tenant.sentenceProcess(userSentence).contains("又拍云"));
+        assertTrue(other.sentenceProcess(userSentence).contains("又拍云"));
+    }
+
+
+    @Test
+    public void testConcurrentOverlayBuild() throws Exception {
+        List<CompletableFuture<Void>> builds = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int t = 0; t < 8; ++t) {
+                final int tenant = t;
+                builds.add(CompletableFuture.runAsync(() -> {
+                    for (int round = 0; round < 4; ++round) {
+                        Map<String, Integer> words = new HashMap<>();
+                        for (int i = 0; i < 2000; ++i) {
+                            words.put(new String(new char[]{(char) (0x4e00 + tenant * 2000 + i), (char) (0x4e00 + i)}), 10 + i);
+                        }
+                        OverlayDictionary overlay = OverlayDictionary.of(words);
+                        assertEquals(words.size(), overlay.size());
+                        for (String word : words.keySet()) {
+                            assertTrue(word, overlay.containsWord(word));
+                        }
+                    }
+                }, pool));
+            }
+            // compacting the shared dictionary races the builds as well
+            builds.add(CompletableFuture.runAsync(() -> {
+                WordDictionary.Snapshot snapshot = WordDictionary.getInstance().snapshot();
+                DoubleArrayTrie compact = snapshot.compact();
+                snapshot.trie.forEachWord((word, freq) -> assertTrue(word, compact.wordId(word) >= 0));
+            }, pool));
+            for (CompletableFuture<Void> build : builds) {
+                build.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testSegmentCache() {
+        SegmentCache cache = new SegmentCache(1 << 16);
+        JiebaSegmenter cached = new JiebaSegmenter(null, cache);
+        for (int round = 0; round < 2; ++round) {
+            for (String sentence : sentences) {
+                assertEquals(segmenter.process(sentence, SegMode.SEARCH).toString(),
+                        cached.process(sentence, SegMode.SEARCH).toString());
+                assertEquals(segmenter.sentenceProcess(sentence), cached.sentenceProcess(sentence));
+            }
+        }
+        assertTrue(cache.hits() > 0);
+        assertTrue(cache.misses() > 0);
+        assertTrue(cache.size() > 0);
+
+        // a tiny cache keeps evicting, results stay the same
+        SegmentCache small = new SegmentCache(16, 8);
+        JiebaSegmenter evicting = new JiebaSegmenter(null, small);
+        for (String sentence : sentences) {
+            assertEquals(segmenter.sentenceProcess(sentence), evicting.sentenceProcess(sentence));
+        }
+        assertTrue(small.evictions() > 0);
+        assertTrue(small.weight() <= 16 || small.size() == 1);
+    }
+
+
+    @Test
+    public void testIndexSubWords() {
+        JiebaSegmenter longer = new JiebaSegmenter(null, null, 8);
+        boolean more = false;
+        for (String sentence : sentences) {
+            List<String> tokens = new ArrayList<>();
+            for (SegToken token : segmenter.process(sentence, SegMode.INDEX)) {
+                tokens.add(token.toString());
+            }
+            List<String> longerTokens = new ArrayList<>();
+            for (SegToken token : longer.process(sentence, SegMode.INDEX)) {
+                longerTokens.add(token.toString());
+                assertEquals(sentence.substring(token.getStartOffset(), token.getEndOffset()).toLowerCase(Locale.getDefault()),
+                        token.getWord().toLowerCase(Locale.getDefault()));
+            }
+            assertTrue(longerTokens.containsAll(tokens));
+            more |= longerTokens.size() > tokens.size();
+        }
+        assertTrue(more);
+    }
+
+
+    @Test
+    public void testFullMode() {
+        List<String> words = new ArrayList<>();
+        for (SegToken token : segmenter.process("我来到北京清华大学", SegMode.FULL)) {
+            words.add(token.getWord());
+            assertEquals("我来到北京清华大学".substring(token.getStartOffset(), token.getEndOffset()), token.getWord());
+        }
+        assertTrue(words.containsAll(Arrays.asList("来到", "北京", "清华", "清华大学", "华大", "大学")));
+
+        // runs of letters and digits and decimals stay whole
+        String mixed = "iPhone 7 价格2999.5元";
+        List<String> mixedWords = new ArrayList<>();
+        for (SegToken token : segmenter.process(mixed, SegMode.FULL)) {
+            mixedWords.add(mixed.substring(token.getStartOffset(), token.getEndOffset()));
+        }
+        assertEquals(Arrays.asList("iPhone", " ", "7", " ", "价格", "2999.5", "元"), mixedWords);
+        for (String sentence : sentences) {
+            List<String> full = new ArrayList<>();
+            for (SegToken token : segmenter.process(sentence, SegMode.FULL)) {
+                full.add(token.getWord());
+            }
+            for (SegToken token : segmenter.process(sentence, SegMode.SEARCH)) {
+                if (token.getWord().length() > 1 && WordDictionary.getInstance().containsWord(token.getWord())) {
+                    assertTrue(token.getWord(), full.contains(token.getWord()));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * bytes allocated per input char on the hot paths must stay within
+     * src/test/resources/allocation-budget.properties
+     */
+    @Test
+    public void testAllocationBudget() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("/test.txt"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        final Properties budget = new Properties();
+        try (InputStream is = getClass().getResourceAsStream("/allocation-budget.properties")) {
+            budget.load(is);
+        }
+
+        final TokenBuffer tokens = new TokenBuffer();
+        final FinalSeg finalSeg = FinalSeg.getInstance();
+        final IntConsumer ignore = end -> {
+        };
+        Map<String, Consumer<String>> paths = new LinkedHashMap<>();
+        paths.put("process.search", line -> segmenter.process(line, SegMode.SEARCH));
+        paths.put("process.index", line -> segmenter.process(line, SegMode.INDEX));
+        paths.put("process.full", line -> segmenter.process(line, SegMode.FULL));
+        paths.put("process.buffer", line -> segmenter.process(line, SegMode.SEARCH, tokens));
+        paths.put("sentenceProcess", line -> segmenter.sentenceProcess(line));
+        paths.put("finalSeg.cut", line -> finalSeg.cut(line, 0, line.length(), ignore));
+
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Consumer<String>> path : paths.entrySet()) {
+            final Consumer<String> op = path.getValue();
+            long chars = 0;
+            long bytes = 0;
+            for (int round = 0; round < 40; ++round) {
+                final long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (String line : lines) {
+                    op.accept(line);
+                }
+                final long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+                // the first rounds warm up
+                if (round >= 20) {
+                    bytes += allocated;
+                    for (String line : lines) {
+                        chars += line.length();
+                    }
+                }
+            }
+            final double perChar = (double) bytes / chars;
+            final double limit = Double.parseDouble(budget.getProperty(path.getKey()));
+            report.append(String.format(Locale.getDefault(), "%s: %.1f bytes/char, budget %.1f%n", path.getKey(), perChar, limit));
+            assertTrue(String.format(Locale.getDefault(), "%s allocates %.1f bytes/char, budget %.1f",
+                    path.getKey(), perChar, limit), perChar <= limit);
+        }
+        System.out.print(report);
+    }
+
+
+    @Test
+    public void testSegmenterMetrics() {
+        SegmenterMetrics metrics = SegmenterMetrics.getInstance();
+        long documents = metrics.getDocuments();
+        for (String sentence : sentences) {
+            segmenter.process(sentence, SegMode.SEARCH);
+        }
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertTrue(snapshot.containsKey("search.p99Micros"));
+        assertTrue(metrics.getModelBytes() > 0);
+        assertTrue(metrics.getDictBytes() > 0);
+        if (metrics.isEnabled()) {
+            assertEquals(documents + sentences.length, metrics.getDocuments());
+            assertTrue(metrics.getDagEdgesPerChar() >= 1.0);
+        } else {
+            assertEquals(0L, metrics.getDocuments());
+        }
+
+        // the counters themselves, whether the switch is on or not
+        SegmenterMetrics counted = new SegmenterMetrics();
+        counted.document(SegMode.SEARCH, 10, 0L);
+        counted.document(SegMode.INDEX, 6, System.nanoTime());
+        counted.sentence(5, 8);
+        counted.sentence(5, 7);
+        counted.hmm(3);
+        assertEquals(2L, counted.getDocuments());
+        assertEquals(16L, counted.getChars());
+        assertEquals(2L, counted.getSentences());
+        assertEquals(1.5, counted.getDagEdgesPerChar());
+        assertEquals(1L, counted.getHmmCalls());
+        assertEquals(3L, counted.getHmmChars());
+        assertEquals(0.3, counted.getOutOfVocabularyRate());
+        Map<String, Object> counts = counted.snapshot();
+        assertEquals(0L, counts.get("search.samples"));
+        assertEquals(1L, counts.get("index.samples"));
+        assertTrue(counted.latencyMicros("index", 0.5) >= 0.0);
+        counted.reset();
+        assertEquals(0L, counted.getDocuments());
+        assertEquals(0.0, counted.getDagEdgesPerChar());
+        assertEquals(0L, counted.snapshot().get("index.samples"));
+
+        // 4 buckets per power of two, a quantile reads the lower bound of its bucket
+        SegmenterMetrics.Histogram histogram = new SegmenterMetrics.Histogram();
+        assertEquals(0.0, histogram.quantile(0.5));
+        for (long nanos = 1; nanos <= 1000; ++nanos) {
+            histogram.record(nanos);
+        }
+        assertEquals(1000L, histogram.count());
+        assertEquals(1.0, histogram.quantile(0.0));
+        assertEquals(448.0, histogram.quantile(0.5));
+        assertEquals(896.0, histogram.quantile(0.99));
+        assertEquals(896.0, histogram.quantile(1.0));
+        histogram.record(0L);
+        assertEquals(1.0, histogram.quantile(0.0));
+        histogram.reset();
+        assertEquals(0L, histogram.count());
+    }
+
+
+    @Test
+    public void testSkipTokens() {
+        final String alphabet = "a1.Z9_-+# 中x0";
+        final java.util.Random random = new java.util.Random(42);
+        for (int n = 0; n < 20000; ++n) {
+            final char[] chars = new char[1 + random.nextInt(12)];
+            for (int i = 0; i < chars.length; ++i) {
+                chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            final String text = new String(chars);
+            final List<String> expected = new ArrayList<>();
+            final java.util.regex.Matcher matcher = Pattern.compile("(\\d+\\.\\d+|[a-zA-Z0-9]+)").matcher(text);
+            while (matcher.find()) {
+                expected.add(matcher.group());
+            }
+            final List<String> actual = new ArrayList<>();
+            for (int i = 0; i < text.length(); ) {
+                final int end = CharacterUtil.skipTokenEnd(text, i, text.length());
+                if (end == i) {
+                    ++i;
+                } else {
+                    actual.add(text.substring(i, end));
+                    i = end;
+                }
+            }
+            assertEquals(text, expected, actual);
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package com.huaban.analysis.jieba.server;
+
+import com.huaban.analysis.jieba.AsyncSegmenter;
+import com.huaban.analysis.jieba.JiebaSegmenter;
+import com.huaban.analysis.jieba.JiebaSegmenter.SegMode;
+import com.huaban.analysis.jieba.TokenBuffer;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+
+public class SegmentServerTest extends TestCase {
+
+    private static final String TEXT = "南京市长江大桥";
+
+    @Test
+    public void testMode() {
+        assertEquals(SegMode.SEARCH, SegmentServer.mode(null));
+        assertEquals(SegMode.SEARCH, SegmentServer.mode(""));
+        assertEquals(SegMode.SEARCH, SegmentServer.mode("lang=zh"));
+        assertEquals(SegMode.INDEX, SegmentServer.mode("mode=index"));
+        assertEquals(SegMode.FULL, SegmentServer.mode("lang=zh&mode=FULL"));
+        assertNull(SegmentServer.mode("mode=fast"));
+    }
+
+
+    @Test
+    public void testEncode() {
+        final TokenBuffer tokens = new TokenBuffer();
+        assertEquals("\n", new String(SegmentServer.encode(tokens), StandardCharsets.US_ASCII));
+
+        final byte[] utf8 = TEXT.getBytes(StandardCharsets.UTF_8);
+        new JiebaSegmenter().process(utf8, 0, utf8.length, SegMode.SEARCH, tokens);
+        // byte offsets: 南京市 is 9 bytes, 长江大桥 12
+        assertEquals("0 9 9 21\n", new String(SegmentServer.encode(tokens), StandardCharsets.US_ASCII));
+        assertEquals(0, tokens.size());
+    }
+
+
+    @Test
+    public void testResponses() throws Exception {
+        try (SegmentServer server = new SegmentServer(0, 1, 4)) {
+            server.start();
+            final String base = "http://localhost:" + server.port() + SegmentServer.PATH;
+
+            HttpURLConnection connection = post(base + "?mode=search", TEXT.getBytes(StandardCharsets.UTF_8));
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("0 9 9 21\n", read(connection.getInputStream()));
+
+            connection = post(base + "?mode=fast", TEXT.getBytes(StandardCharsets.UTF_8));
+            assertEquals(400, connection.getResponseCode());
+
+            connection = post(base, new byte[SegmentServer.MAX_BODY_BYTES + 1]);
+            assertEquals(413, connection.getResponseCode());
+        }
+    }
+
+
+    @Test
+    public void testOverloaded() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AsyncSegmenter segmenter = new AsyncSegmenter(new JiebaSegmenter(), 1, 1, 1,
+                AsyncSegmenter.Overflow.REJECT, false);
+        final SegmentServer server = new SegmentServer(0, segmenter);
+        try {
+            server.start();
+            // hold the only worker and fill the queue behind it
+            segmenter.submit(s -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            });
+            started.await();
+            segmenter.submit(s -> null);
+
+            final HttpURLConnection connection = post("http://localhost:" + server.port() + SegmentServer.PATH,
+                    TEXT.getBytes(StandardCharsets.UTF_8));
+            assertEquals(503, connection.getResponseCode());
+        } finally {
+            // close waits for the held worker, it is let go first
+            release.countDown();
+            server.close();
+        }
+    }
+
+
+    private static HttpURLConnection post(final String url, final byte[] body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+        }
+        return connection;
+    }
+
+    private static String read(final InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[256];
+        int n;
+        while ((n = is.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        is.close();
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
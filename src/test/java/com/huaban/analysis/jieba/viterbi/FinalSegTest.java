@@ -0,0 +1,68 @@
+package com.huaban.analysis.jieba.viterbi;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+
+public class FinalSegTest extends TestCase {
+
+    private final FinalSeg finalSeg = FinalSeg.getInstance();
+
+
+    private List<String> viterbi(final String sentence) {
+        final List<String> cuts = new ArrayList<>();
+        finalSeg.viterbi(sentence, cuts);
+        assertEquals(sentence, String.join("", cuts));
+        return cuts;
+    }
+
+
+    /*
+     * chars drawn from a fixed alphabet, mostly words the dictionary does not know
+     */
+    private static String text(final int length) {
+        final String alphabet = "杭研厦孙君意韩玉赏鉴吉林蓝翔挖掘机烤鸭涮羊肉煎饼果子麻辣烫螺蛳粉";
+        final Random random = new Random(length);
+        final StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+
+    @Test
+    public void testOutOfVocabulary() {
+        assertEquals(Arrays.asList("杭研大厦"), viterbi("杭研大厦"));
+        assertEquals(Arrays.asList("孙君意"), viterbi("孙君意"));
+        assertEquals(Arrays.asList("韩玉赏", "鉴"), viterbi("韩玉赏鉴"));
+        assertEquals(Arrays.asList("他来", "到", "了", "网易", "杭", "研大厦"), viterbi("他来到了网易杭研大厦"));
+        assertEquals(Arrays.asList("小明", "硕士", "毕业于", "中国", "科学院", "计算", "所"), viterbi("小明硕士毕业于中国科学院计算所"));
+        assertEquals(Arrays.asList("吉林", "蓝翔", "挖掘机"), viterbi("吉林蓝翔挖掘机"));
+    }
+
+
+    @Test
+    public void testLongSentences() {
+        // longer than the initial backpointer table of 1024 bytes
+        final String longer = text(300);
+        final List<String> cuts = viterbi(longer);
+        assertEquals(171, cuts.size());
+        assertEquals(-795156346, String.join("/", cuts).hashCode());
+
+        // longer than the table a thread keeps, it is used once and dropped
+        final String longest = text(20000);
+        final List<String> longestCuts = viterbi(longest);
+        assertEquals(11421, longestCuts.size());
+        assertEquals(-149092987, String.join("/", longestCuts).hashCode());
+
+        // the tables kept by the thread decode the same afterwards
+        assertEquals(cuts, viterbi(longer));
+        assertEquals(Arrays.asList("韩玉赏", "鉴"), viterbi("韩玉赏鉴"));
+    }
+}
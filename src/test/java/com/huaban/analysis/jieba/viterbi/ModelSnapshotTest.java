@@ -0,0 +1,101 @@
+package com.huaban.analysis.jieba.viterbi;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+
+public class ModelSnapshotTest extends TestCase {
+
+    private static Emission parseText() throws IOException {
+        try (InputStream is = ModelSnapshotTest.class.getResourceAsStream(ModelSnapshot.TEXT_RESOURCE)) {
+            return Emission.parse(is);
+        }
+    }
+
+
+    private static void assertSameModel(final Emission expected, final Emission actual) {
+        assertNotNull(actual);
+        assertEquals(expected.keyCount(), actual.keyCount());
+        for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+            final int expectedRow = expected.row((char) c);
+            final int actualRow = actual.row((char) c);
+            for (int state = 0; state < Emission.STATE_COUNT; ++state) {
+                assertEquals("char " + c + " state " + Emission.STATES.charAt(state),
+                        Double.doubleToLongBits(expected.prob(expectedRow, state)),
+                        Double.doubleToLongBits(actual.prob(actualRow, state)));
+            }
+        }
+    }
+
+
+    @Test
+    public void testShippedModel() throws IOException {
+        assertNull(System.getProperty(ModelSnapshot.MODEL_PROPERTY));
+        assertSameModel(parseText(), ModelSnapshot.load());
+    }
+
+
+    @Test
+    public void testMappedModel() throws IOException {
+        final Emission text = parseText();
+        final Path model = Files.createTempFile("prob_emit", ".bin");
+        try {
+            ModelSnapshot.write(text, model);
+            System.setProperty(ModelSnapshot.MODEL_PROPERTY, model.toString());
+            assertSameModel(text, ModelSnapshot.load());
+        } finally {
+            System.clearProperty(ModelSnapshot.MODEL_PROPERTY);
+            Files.delete(model);
+        }
+    }
+
+
+    @Test
+    public void testCorruptModel() throws IOException {
+        final Emission text = parseText();
+        final Path model = Files.createTempFile("prob_emit", ".bin");
+        try {
+            ModelSnapshot.write(text, model);
+            final byte[] bytes = Files.readAllBytes(model);
+            System.setProperty(ModelSnapshot.MODEL_PROPERTY, model.toString());
+
+            // truncated in the middle of the probabilities
+            Files.write(model, Arrays.copyOf(bytes, bytes.length / 2));
+            try {
+                ModelSnapshot.load();
+                fail("truncated model is accepted");
+            } catch (RuntimeException e) {
+                // expected
+            }
+            assertSameModel(text, FinalSeg.loadEmission());
+
+            // key count out of range
+            final byte[] badCount = bytes.clone();
+            Arrays.fill(badCount, 8, 12, (byte) 0xff);
+            Files.write(model, badCount);
+            try {
+                ModelSnapshot.load();
+                fail("bad key count is accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            assertSameModel(text, FinalSeg.loadEmission());
+
+            // not a model at all
+            final byte[] badMagic = bytes.clone();
+            badMagic[0] ^= 1;
+            Files.write(model, badMagic);
+            assertNull(ModelSnapshot.load());
+            assertSameModel(text, FinalSeg.loadEmission());
+        } finally {
+            System.clearProperty(ModelSnapshot.MODEL_PROPERTY);
+            Files.delete(model);
+        }
+    }
+}